@@ -0,0 +1,363 @@
+package sequencemining.main;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.common.collect.Table;
+
+import sequencemining.sequence.Sequence;
+import sequencemining.sequence.SequenceDictionary;
+import sequencemining.transaction.Occurrences;
+import sequencemining.transaction.SupportingTransactions;
+import sequencemining.transaction.TransactionDatabase;
+import sequencemining.util.FingerprintCache;
+import sequencemining.util.LongHashSet;
+import sequencemining.util.SupportHeap;
+
+/**
+ * Candidate generator and support-ordered candidate queue that persist across
+ * structural EM iterations
+ * <p>
+ * Joins of the initial sequences are enumerated lazily in diagonal order of
+ * their supports, resuming where the previous iteration stopped. Joins of
+ * sequences added to the model later (or re-added to it) are generated all at
+ * once when they enter it. Candidates are dropped from the queue once they
+ * have been evaluated, or once they are no longer a join of two sequences in
+ * the model, so the queue only ever holds joins of the current model.
+ * <p>
+ * Evaluated candidates are remembered by their 64-bit fingerprints and the
+ * supports of generated candidates are kept in a bounded cache, so a
+ * candidate is generated at most once unless evicted from the cache. Only
+ * supported candidates are interned, and rejected ones are released from the
+ * dictionary again.
+ * <p>
+ * Supports of candidates are found from the vertical occurrence lists of the
+ * two model sequences they join, so transactions not containing both are
+ * never scanned. If the transactions are not held in memory, neither are the
+ * occurrence lists (they are recomputed for each batch of candidates) nor the
+ * supporting transactions of queued candidates (they are recounted when a
+ * candidate is polled).
+ */
+class CandidateGenerator {
+
+	private final TransactionDatabase transactions;
+	private final SequenceDictionary dictionary;
+
+	/** Keep occurrence lists and supporting transactions resident */
+	private final boolean inMemory;
+
+	/** Fingerprints of candidates that have already been evaluated */
+	private final LongHashSet rejected = new LongHashSet();
+
+	/** Supports of candidates that have already been generated */
+	private final FingerprintCache generated;
+	private static final int NOT_GENERATED = -1;
+	private static final int PENDING = -2; // support not yet counted
+
+	/** IDs of the sequences in the model (as of the last update) */
+	private BitSet inModel = new BitSet();
+
+	/** Initial sequence IDs in support order (the enumeration order) */
+	private final int[] sortedSequences;
+
+	/** Position of the diagonal enumeration */
+	private int istart = 0;
+	private int jstart = 0;
+	private int kstart = 0;
+	private boolean enumerated = false;
+
+	/** Occurrence lists of sequences in the model (computed on demand, if in memory) */
+	private final Map<Integer, Occurrences> occurrences = new HashMap<>();
+
+	/** Queued candidates by ID (the heap may hold IDs that are no longer queued) */
+	private final Map<Integer, QueuedCandidate> queued = new HashMap<>();
+	private final SupportHeap candidateQueue;
+
+	/** Queued candidate, i.e. a supported join of two model sequences */
+	private static class QueuedCandidate {
+		private int left;
+		private int right;
+		private final int support;
+		private SupportingTransactions supportingTransactions; // null if not resident
+
+		private QueuedCandidate(final int left, final int right, final int support,
+				final SupportingTransactions supportingTransactions) {
+			this.left = left;
+			this.right = right;
+			this.support = support;
+			this.supportingTransactions = supportingTransactions;
+		}
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param transactions
+	 *            the transaction database
+	 * @param sequences
+	 *            the initial model sequences
+	 * @param sequenceSupportOrdering
+	 *            comparator that determines which sequence IDs to combine
+	 *            first
+	 * @param maxCachedSupports
+	 *            max. no. of generated candidate supports to cache
+	 */
+	CandidateGenerator(final TransactionDatabase transactions, final Table<Sequence, Integer, Double> sequences,
+			final Comparator<Integer> sequenceSupportOrdering, final int maxCachedSupports) {
+		this.transactions = transactions;
+		this.dictionary = transactions.getDictionary();
+		this.inMemory = transactions.isInMemory();
+		this.generated = new FingerprintCache(maxCachedSupports, NOT_GENERATED);
+
+		// Set up decreasing support ordered queue for candidate sequence IDs
+		this.candidateQueue = new SupportHeap(
+				(id1, id2) -> transactions.compareAsStrings(dictionary.getSequence(id1), dictionary.getSequence(id2)));
+
+		// Sort sequence IDs according to given ordering
+		final List<Integer> sorted = new ArrayList<>();
+		for (final Sequence seq : sequences.rowKeySet())
+			sorted.add(dictionary.getId(seq));
+		Collections.sort(sorted, sequenceSupportOrdering);
+		sortedSequences = new int[sorted.size()];
+		for (int i = 0; i < sortedSequences.length; i++) {
+			sortedSequences[i] = sorted.get(i);
+			inModel.set(sortedSequences[i]);
+		}
+	}
+
+	/**
+	 * Synchronize with the current model, dropping queued candidates that are
+	 * no longer joins of model sequences and queueing all joins of sequences
+	 * that have entered the model since the last call
+	 */
+	void update(final Table<Sequence, Integer, Double> sequences) {
+		final BitSet newModel = new BitSet();
+		for (final Sequence seq : sequences.rowKeySet())
+			newModel.set(dictionary.getId(seq));
+		final BitSet entered = (BitSet) newModel.clone();
+		entered.andNot(inModel);
+		final BitSet left = (BitSet) inModel.clone();
+		left.andNot(newModel);
+		inModel = newModel;
+		occurrences.keySet().removeIf(id -> !newModel.get(id));
+		if (!left.isEmpty())
+			dropStaleCandidates();
+
+		final Map<Sequence, int[]> uncachedCandidates = new HashMap<>();
+		for (int id = entered.nextSetBit(0); id >= 0; id = entered.nextSetBit(id + 1)) {
+			for (int other = newModel.nextSetBit(0); other >= 0; other = newModel.nextSetBit(other + 1)) {
+				if (other == id)
+					continue;
+				generate(id, other, uncachedCandidates);
+				generate(other, id, uncachedCandidates);
+			}
+		}
+		queueSupported(uncachedCandidates);
+	}
+
+	/**
+	 * Drop queued candidates with a parent that has left the model, unless
+	 * they are also the join of two other model sequences. Dropped candidates
+	 * are forgotten, so they are generated again if they become joins of the
+	 * model later on.
+	 */
+	private void dropStaleCandidates() {
+		final List<Integer> dropped = new ArrayList<>();
+		for (final Entry<Integer, QueuedCandidate> entry : queued.entrySet()) {
+			final QueuedCandidate queuedCandidate = entry.getValue();
+			if (inModel.get(queuedCandidate.left) && inModel.get(queuedCandidate.right))
+				continue;
+			if (!findModelParents(dictionary.getSequence(entry.getKey()), queuedCandidate))
+				dropped.add(entry.getKey());
+		}
+		if (dropped.isEmpty())
+			return;
+		for (final int candId : dropped) {
+			queued.remove(candId);
+			generated.put(dictionary.getSequence(candId).fingerprint(), NOT_GENERATED);
+			dictionary.release(candId);
+		}
+		// Rebuild the heap so it only refers to interned candidates
+		candidateQueue.clear();
+		for (final Entry<Integer, QueuedCandidate> entry : queued.entrySet())
+			candidateQueue.add(entry.getKey(), entry.getValue().support);
+	}
+
+	/**
+	 * Find two distinct model sequences that given candidate is the join of,
+	 * setting them as its parents
+	 *
+	 * @return false if there are none
+	 */
+	private boolean findModelParents(final Sequence cand, final QueuedCandidate queuedCandidate) {
+		final int[] items = cand.toIntArray();
+		for (int split = 1; split < items.length; split++) {
+			final int left = dictionary.getIdIfPresent(new Sequence(Arrays.copyOfRange(items, 0, split)));
+			final int right = dictionary.getIdIfPresent(new Sequence(Arrays.copyOfRange(items, split, items.length)));
+			if (left >= 0 && right >= 0 && left != right && inModel.get(left) && inModel.get(right)) {
+				queuedCandidate.left = left;
+				queuedCandidate.right = right;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Continue the enumeration until the queue holds given no. of candidates
+	 *
+	 * @return true if the enumeration stopped before all joins were enumerated
+	 */
+	boolean fill(final int maxSteps) {
+		final int len = sortedSequences.length;
+		while (candidateQueue.size() < maxSteps && !enumerated) {
+			enumerated = true;
+			final int noUncached = maxSteps - candidateQueue.size();
+			final Map<Sequence, int[]> uncachedCandidates = new HashMap<>();
+			outerLoop: for (int k = kstart; k < 2 * len - 2; k++) {
+				for (int i = istart; i < len && i < k + 1; i++) {
+					for (int j = jstart; j < len && i + j < k + 1; j++) {
+						if (k <= i + j && i != j) {
+
+							// Create new candidates by joining seqs in the model
+							if (inModel.get(sortedSequences[i]) && inModel.get(sortedSequences[j]))
+								generate(sortedSequences[i], sortedSequences[j], uncachedCandidates);
+
+							// Possibly found enough candidates
+							if (uncachedCandidates.size() >= noUncached) {
+								istart = i;
+								jstart = j + 1;
+								kstart = k;
+								enumerated = false;
+								break outerLoop;
+							}
+						}
+					}
+					jstart = 0;
+				}
+				istart = 0;
+			}
+			queueSupported(uncachedCandidates);
+		}
+		return !enumerated;
+	}
+
+	/**
+	 * Add join of given sequence IDs to given map (along with the IDs) if it
+	 * has not been generated yet (only building the join if so)
+	 */
+	private void generate(final int id1, final int id2, final Map<Sequence, int[]> uncachedCandidates) {
+		final Sequence seq1 = dictionary.getSequence(id1);
+		final Sequence seq2 = dictionary.getSequence(id2);
+		final long fingerprint = Sequence.joinFingerprint(seq1, seq2);
+		if (!rejected.contains(fingerprint) && generated.get(fingerprint) == NOT_GENERATED) {
+			generated.put(fingerprint, PENDING);
+			uncachedCandidates.put(new Sequence(seq1, seq2), new int[] { id1, id2 });
+		}
+	}
+
+	/**
+	 * Add given candidates (mapped to the IDs of the sequences they join) to
+	 * the queue, ignoring unsupported ones
+	 */
+	private void queueSupported(final Map<Sequence, int[]> uncachedCandidates) {
+		// Occurrence lists of the parents (only for this batch if not in memory)
+		final Map<Integer, Occurrences> parentOccurrences = inMemory ? occurrences : new HashMap<>();
+		for (final int[] parents : uncachedCandidates.values()) {
+			for (final int parent : parents)
+				parentOccurrences.computeIfAbsent(parent,
+						id -> transactions.getOccurrences(dictionary.getSequence(id)));
+		}
+		final Map<Sequence, SupportingTransactions> candidatesWithSupports = new ConcurrentHashMap<>();
+		uncachedCandidates.entrySet().parallelStream().forEach(entry -> {
+			final int[] parents = entry.getValue();
+			final SupportingTransactions supporting = transactions.getSupportingTransactions(entry.getKey(),
+					parentOccurrences.get(parents[0]), parentOccurrences.get(parents[1]));
+			if (supporting.size() > 0)
+				candidatesWithSupports.put(entry.getKey(), supporting);
+		});
+		for (final Entry<Sequence, int[]> entry : uncachedCandidates.entrySet()) {
+			final Sequence cand = entry.getKey();
+			final SupportingTransactions supportingTransactions = candidatesWithSupports.get(cand);
+			if (supportingTransactions == null) { // unsupported
+				generated.put(cand.fingerprint(), 0);
+				continue;
+			}
+			generated.put(cand.fingerprint(), supportingTransactions.size());
+			final int candId = dictionary.getId(cand);
+			final int[] parents = entry.getValue();
+			final QueuedCandidate queuedCandidate = new QueuedCandidate(parents[0], parents[1],
+					supportingTransactions.size(), inMemory ? supportingTransactions : null);
+			if (queued.put(candId, queuedCandidate) == null)
+				candidateQueue.add(candId, queuedCandidate.support);
+		}
+	}
+
+	/**
+	 * Get the next unevaluated candidate ID with highest support (or null),
+	 * recounting its supporting transactions if they are not resident
+	 */
+	Integer poll() {
+		for (int candId; (candId = candidateQueue.poll()) != -1;) {
+			final QueuedCandidate queuedCandidate = queued.get(candId);
+			if (queuedCandidate != null) {
+				if (queuedCandidate.supportingTransactions == null)
+					queuedCandidate.supportingTransactions = transactions
+							.getSupportingTransactions(dictionary.getSequence(candId));
+				return candId;
+			}
+		}
+		return null;
+	}
+
+	/** Return given (unevaluated) candidate ID to the queue */
+	void requeue(final int candId) {
+		final QueuedCandidate queuedCandidate = queued.get(candId);
+		if (!inMemory)
+			queuedCandidate.supportingTransactions = null;
+		candidateQueue.add(candId, queuedCandidate.support);
+	}
+
+	/** Mark given candidate ID as evaluated */
+	void reject(final int candId) {
+		rejected.add(dictionary.getSequence(candId).fingerprint());
+		queued.remove(candId);
+	}
+
+	/** Release given rejected candidate ID from the dictionary */
+	void release(final int candId) {
+		dictionary.release(candId);
+	}
+
+	/** Get resident sizes and counters of the candidate caches */
+	String getStatistics() {
+		return String.format(
+				" Rejected candidates: %d (%.1f MB), cached supports: %d (%.1f MB), hits: %d, misses: %d, "
+						+ "evictions: %d, sequence IDs: %d, occurrence lists: %d (%.1f MB)",
+				rejected.size(), rejected.residentBytes() / 1e6, generated.size(), generated.residentBytes() / 1e6,
+				generated.getHits(), generated.getMisses(), generated.getEvictions(), dictionary.size(),
+				occurrences.size(), occurrences.values().stream().mapToLong(Occurrences::residentBytes).sum() / 1e6);
+	}
+
+	boolean isEmpty() {
+		return candidateQueue.isEmpty();
+	}
+
+	int size() {
+		return candidateQueue.size();
+	}
+
+	/** Get the supporting transactions of given polled candidate ID */
+	SupportingTransactions getSupportingTransactions(final int candId) {
+		return queued.get(candId).supportingTransactions;
+	}
+
+}
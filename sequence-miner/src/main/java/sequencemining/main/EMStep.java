@@ -1,67 +1,67 @@
 package sequencemining.main;
 
-import static java.util.function.Function.identity;
-import static java.util.stream.Collectors.counting;
-import static java.util.stream.Collectors.groupingBy;
-
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
 
 import com.google.common.collect.HashBasedTable;
-import com.google.common.collect.Multiset;
 import com.google.common.collect.Table;
 
 import sequencemining.main.InferenceAlgorithms.InferenceAlgorithm;
 import sequencemining.sequence.Sequence;
+import sequencemining.sequence.SequenceDictionary;
+import sequencemining.transaction.Covering;
+import sequencemining.transaction.CoveringCounts;
+import sequencemining.transaction.CoveringCounts.Refit;
+import sequencemining.transaction.ProbabilityTable;
+import sequencemining.transaction.SequenceProbabilities;
+import sequencemining.transaction.SequenceTrie;
+import sequencemining.transaction.SupportingTransactions;
 import sequencemining.transaction.Transaction;
 import sequencemining.transaction.TransactionDatabase;
-import sequencemining.util.Tuple2;
 
 /** Class to hold the various transaction EM Steps */
 public class EMStep {
 
+	/** No. of supporting transactions between checks of the structural EM cost bound */
+	private static final int COST_CHUNK_SIZE = 4096;
+
+	/** Relative tolerance on the cost bound to guard against rounding */
+	private static final double ABORT_TOL = 1e-9;
+
 	/** Initialize cached sequences */
 	static void initializeCachedSequences(final TransactionDatabase transactions,
 			final Table<Sequence, Integer, Double> initProbs) {
-		transactions.getTransactionList().parallelStream().forEach(t -> t.initializeCachedSequences(initProbs));
+		final ProbabilityTable probabilities = new ProbabilityTable(transactions.getDictionary(), initProbs);
+		transactions.setCachedProbabilities(probabilities);
+		transactions.update(null, t -> t.initializeCachedSequences(probabilities));
+		transactions.setCachedCostCounts(null);
 	}
 
 	/** EM-step for hard EM */
-	static Table<Sequence, Integer, Double> hardEMStep(final List<Transaction> transactions,
+	static Table<Sequence, Integer, Double> hardEMStep(final TransactionDatabase transactions,
 			final InferenceAlgorithm inferenceAlgorithm) {
 		final double noTransactions = transactions.size();
 
 		// E-step
-		final Map<Multiset.Entry<Sequence>, Long> coveringWithCounts = transactions.parallelStream().map(t -> {
-			final Multiset<Sequence> covering = inferenceAlgorithm.infer(t);
-			t.setCachedCovering(covering);
-			return covering.entrySet();
-		}).flatMap(Set::stream).collect(groupingBy(identity(), counting()));
+		final CoveringCounts coveringCounts = transactions.update(null, CoveringCounts::new, (c, id, t) -> {
+			// Only re-infer transactions whose cache has changed
+			if (!t.isCachedCoveringUpToDate())
+				t.setCachedCovering(inferenceAlgorithm.infer(t));
+			c.add(t.getCachedCovering());
+		}, CoveringCounts::addAll);
 
 		// M-step
-		final Table<Sequence, Integer, Double> newSequences = coveringWithCounts.entrySet().parallelStream().collect(
-				HashBasedTable::create,
-				(t, e) -> t.put(e.getKey().getElement(), e.getKey().getCount(), e.getValue() / noTransactions),
-				Table::putAll);
-		newSequences.rowKeySet().parallelStream().forEach(seq -> {
-			// Pad with zero counts for non-occurrences
-			final int maxOccur = Collections.max(newSequences.row(seq).keySet());
-			for (int occur = 1; occur <= maxOccur; occur++) {
-				if (!newSequences.contains(seq, occur))
-					newSequences.put(seq, occur, 0.);
-			} // Add probabilities for zero occurrences
-			double rowSum = 0;
-			for (final Double count : newSequences.row(seq).values())
-				rowSum += count;
-			newSequences.put(seq, 0, 1 - rowSum);
-		});
+		final Table<Sequence, Integer, Double> newSequences = maximizationStep(coveringCounts,
+				transactions.getDictionary(), noTransactions);
 
 		// Update cached sequences
-		transactions.parallelStream().forEach(t -> t.updateCachedSequences(newSequences));
+		transactions.getCachedProbabilities().update(newSequences);
+		transactions.setCachedCostCounts(null);
 
 		return newSequences;
 	}
@@ -73,118 +73,192 @@ public class EMStep {
 				/ noTransactions;
 	}
 
-	/** EM-step for structural EM */
-	static Tuple2<Double, Map<Integer, Double>> structuralEMStep(final TransactionDatabase transactions,
-			final InferenceAlgorithm inferenceAlgorithm, final Sequence candidate) {
+	/** Result of evaluating a candidate in a structural EM-step */
+	static class CandidateEvaluation {
+
+		/**
+		 * Average cost (a lower bound on it if the candidate cannot beat the
+		 * current average cost)
+		 */
+		final double averageCost;
+
+		/** Candidate probabilities */
+		final Map<Integer, Double> prob;
+
+		/** Transactions supporting the candidate */
+		final SupportingTransactions supportingTransactions;
+
+		/** Coverings of the supporting transactions with the candidate cached */
+		final Covering[] coverings;
+
+		CandidateEvaluation(final double averageCost, final Map<Integer, Double> prob,
+				final SupportingTransactions supportingTransactions, final Covering[] coverings) {
+			this.averageCost = averageCost;
+			this.prob = prob;
+			this.supportingTransactions = supportingTransactions;
+			this.coverings = coverings;
+		}
+	}
+
+	/**
+	 * EM-step for structural EM
+	 * <p>
+	 * Only the transactions supporting the candidate are visited: the
+	 * coverings of the others are unchanged, so their covering counts and
+	 * total cost follow from the cost counts of all cached coverings minus
+	 * those of the supporting transactions, and only the probabilities of the
+	 * sequences whose counts change need to be refitted.
+	 * <p>
+	 * N.B. this leaves the transaction caches and the shared probabilities
+	 * untouched (the candidate is only added to an overlay of them), so
+	 * several candidates may be evaluated concurrently
+	 */
+	static CandidateEvaluation structuralEMStep(final TransactionDatabase transactions,
+			final InferenceAlgorithm inferenceAlgorithm, final Sequence candidate,
+			final SupportingTransactions supportingTransactions) {
 		final double noTransactions = transactions.size();
+		final int candidateId = transactions.getDictionary().getId(candidate);
+
+		final List<Transaction> transactionList = transactions.getTransactionList();
 
 		// Calculate max. no. of candidate occurrences
-		final int maxReps = transactions.getTransactionList().parallelStream().mapToInt(t -> t.repetitions(candidate))
-				.max().getAsInt();
+		final int maxReps = supportingTransactions.getMaxRepetitions();
 		final Map<Integer, Double> initProb = new HashMap<>();
 		initProb.put(0, 0.);
 		for (int occur = 1; occur <= maxReps; occur++)
 			initProb.put(occur, 1.);
+		final SequenceProbabilities candidateProbabilities = transactions.getCachedProbabilities().withRow(candidateId,
+				initProb);
 
 		// E-step (adding candidate to transactions that support it)
-		final Map<Multiset.Entry<Sequence>, Long> coveringWithCounts = transactions.getTransactionList()
-				.parallelStream().map(t -> {
-					if (t.contains(candidate)) {
-						t.addSequenceCache(candidate, initProb);
-						final Multiset<Sequence> covering = inferenceAlgorithm.infer(t);
-						t.setTempCachedCovering(covering);
-						return covering.entrySet();
-					}
-					return t.getCachedCovering().entrySet();
-				}).flatMap(Set::stream).collect(groupingBy(identity(), counting()));
-
-		// M-step
-		final Table<Sequence, Integer, Double> newSequences = coveringWithCounts.entrySet().parallelStream().collect(
-				HashBasedTable::create,
-				(t, e) -> t.put(e.getKey().getElement(), e.getKey().getCount(), e.getValue() / noTransactions),
-				Table::putAll);
-		newSequences.rowKeySet().parallelStream().forEach(seq -> {
-			// Pad with zero counts for non-occurrences
-			final int maxOccur = Collections.max(newSequences.row(seq).keySet());
-			for (int occur = 1; occur <= maxOccur; occur++) {
-				if (!newSequences.contains(seq, occur))
-					newSequences.put(seq, occur, 0.);
-			} // Add probabilities for zero occurrences
-			double rowSum = 0;
-			for (final Double count : newSequences.row(seq).values())
-				rowSum += count;
-			newSequences.put(seq, 0, 1 - rowSum);
+		final int noSupporting = supportingTransactions.size();
+		final int[][] candidateSequenceIds = new int[noSupporting][];
+		final Covering[] coverings = new Covering[noSupporting];
+		IntStream.range(0, noSupporting).parallel().forEach(j -> {
+			final Transaction t = transactionList.get(supportingTransactions.getId(j));
+			candidateSequenceIds[j] = t.getCachedSequenceIdsWith(candidateId);
+			coverings[j] = inferenceAlgorithm.infer(t, candidateSequenceIds[j], candidateProbabilities);
 		});
+		final CoveringCounts removedCounts = new CoveringCounts();
+		for (int j = 0; j < noSupporting; j++)
+			transactionList.get(supportingTransactions.getId(j)).addCachedCostCounts(removedCounts, 1);
+		final CoveringCounts addedCounts = new CoveringCounts();
+		for (final Covering covering : coverings)
+			addedCounts.add(covering);
+
+		// M-step (only refitting the sequences whose counts changed)
+		final Refit newProbabilities = getCachedCostCounts(transactions).refit(removedCounts, addedCounts,
+				transactions.getDictionary(), noTransactions);
 
-		// Get average cost (removing candidate from supported transactions)
-		final double averageCost = transactions.getTransactionList().parallelStream().mapToDouble(t -> {
-			double cost;
-			if (t.contains(candidate))
-				cost = t.getTempCachedCost(newSequences);
-			else
-				cost = t.getCachedCost(newSequences);
-			t.removeSequenceCache(candidate);
-			return cost;
-		}).sum() / noTransactions;
+		// Get average cost, adding the costs of the supporting transactions in
+		// chunks and aborting as soon as the candidate provably cannot beat the
+		// current average cost (costs of the unprocessed transactions are
+		// bounded below by the probability-free part)
+		final double maxTotalCost = transactions.getAverageCost() * noTransactions;
+		final double otherCost = newProbabilities.getOtherCost();
+		final double[] costs = new double[noSupporting];
+		final double[] lowerBounds = IntStream.range(0, noSupporting).parallel()
+				.mapToDouble(j -> transactionList.get(supportingTransactions.getId(j)).getCostLowerBound(coverings[j]))
+				.toArray();
+		double remainingBound = DoubleStream.of(lowerBounds).sum();
+		double partialCost = otherCost;
+		boolean aborted = false;
+		for (int start = 0; start < noSupporting; start += COST_CHUNK_SIZE) {
+			if (partialCost + remainingBound > maxTotalCost + ABORT_TOL * Math.abs(maxTotalCost)) {
+				aborted = true;
+				break;
+			}
+			final int end = Math.min(noSupporting, start + COST_CHUNK_SIZE);
+			partialCost += IntStream.range(start, end).parallel().mapToDouble(j -> {
+				final Transaction t = transactionList.get(supportingTransactions.getId(j));
+				costs[j] = t.getCost(newProbabilities, candidateProbabilities, candidateSequenceIds[j], coverings[j]);
+				return costs[j];
+			}).sum();
+			for (int j = start; j < end; j++)
+				remainingBound -= lowerBounds[j];
+		}
+		final double averageCost = aborted ? (partialCost + remainingBound) / noTransactions
+				: (otherCost + IntStream.range(0, noSupporting).parallel().mapToDouble(j -> costs[j]).sum())
+						/ noTransactions;
 
 		// Get candidate prob
-		final Map<Integer, Double> prob = newSequences.row(candidate);
+		final Map<Integer, Double> prob = new HashMap<>();
+		final double[] candidateRow = newProbabilities.getRow(candidateId);
+		for (int occur = 0; candidateRow != null && occur < candidateRow.length; occur++)
+			prob.put(occur, candidateRow[occur]);
+
+		return new CandidateEvaluation(averageCost, prob, supportingTransactions, coverings);
+	}
 
-		return new Tuple2<Double, Map<Integer, Double>>(averageCost, prob);
+	/**
+	 * Get the cost counts of all cached coverings (see {@link CoveringCounts}),
+	 * counting them if the caches have changed since they were last counted
+	 */
+	private static CoveringCounts getCachedCostCounts(final TransactionDatabase transactions) {
+		synchronized (transactions) {
+			if (transactions.getCachedCostCounts() == null)
+				transactions.setCachedCostCounts(transactions.getTransactionList().parallelStream().collect(
+						CoveringCounts::new, (c, t) -> t.addCachedCostCounts(c, 1), CoveringCounts::addAll));
+			return transactions.getCachedCostCounts();
+		}
 	}
 
 	/** Add accepted candidate itemset to cache */
 	static Table<Sequence, Integer, Double> addAcceptedCandidateCache(final TransactionDatabase transactions,
-			final Sequence candidate, final Map<Integer, Double> prob) {
+			final Sequence candidate, final CandidateEvaluation evaluation) {
 		final double noTransactions = transactions.size();
+		final int candidateId = transactions.getDictionary().getId(candidate);
+		transactions.getCachedProbabilities().putRow(candidateId, evaluation.prob);
 
 		// Cached E-step (adding candidate to transactions that support it)
-		final Map<Multiset.Entry<Sequence>, Long> coveringWithCounts = transactions.getTransactionList()
-				.parallelStream().map(t -> {
-					if (t.contains(candidate)) {
-						t.addSequenceCache(candidate, prob);
-						final Multiset<Sequence> covering = t.getTempCachedCovering();
-						t.setCachedCovering(covering);
-						return covering.entrySet();
-					}
-					return t.getCachedCovering().entrySet();
-				}).flatMap(Set::stream).collect(groupingBy(identity(), counting()));
+		final SupportingTransactions supportingTransactions = evaluation.supportingTransactions;
+		final CoveringCounts coveringCounts = transactions.update(null, CoveringCounts::new, (c, id, t) -> {
+			final int j = supportingTransactions.indexOf(id);
+			if (j >= 0) {
+				t.addSequenceCache(candidateId);
+				t.setStaleCachedCovering(evaluation.coverings[j]);
+			}
+			c.add(t.getCachedCovering());
+		}, CoveringCounts::addAll);
 
 		// M-step
-		final Table<Sequence, Integer, Double> newSequences = coveringWithCounts.entrySet().parallelStream().collect(
-				HashBasedTable::create,
-				(t, e) -> t.put(e.getKey().getElement(), e.getKey().getCount(), e.getValue() / noTransactions),
-				Table::putAll);
-		newSequences.rowKeySet().parallelStream().forEach(seq -> {
-			// Pad with zero counts for non-occurrences
-			final int maxOccur = Collections.max(newSequences.row(seq).keySet());
-			for (int occur = 1; occur <= maxOccur; occur++) {
-				if (!newSequences.contains(seq, occur))
-					newSequences.put(seq, occur, 0.);
-			} // Add probabilities for zero occurrences
-			double rowSum = 0;
-			for (final Double count : newSequences.row(seq).values())
-				rowSum += count;
-			newSequences.put(seq, 0, 1 - rowSum);
-		});
+		final Table<Sequence, Integer, Double> newSequences = maximizationStep(coveringCounts,
+				transactions.getDictionary(), noTransactions);
 
 		// Update cached itemsets
-		transactions.getTransactionList().parallelStream().forEach(t -> t.updateCachedSequences(newSequences));
+		transactions.getCachedProbabilities().update(newSequences);
+		transactions.setCachedCostCounts(null);
+
+		return newSequences;
+	}
 
+	/** M-step: calculate sequence probabilities from the covering counts */
+	private static Table<Sequence, Integer, Double> maximizationStep(final CoveringCounts coveringCounts,
+			final SequenceDictionary dictionary, final double noTransactions) {
+		final Table<Sequence, Integer, Double> newSequences = HashBasedTable.create();
+		for (final int id : coveringCounts.getIds()) {
+			final double[] row = CoveringCounts.getProbabilities(coveringCounts.getCounts(id), noTransactions);
+			if (row == null) // in no covering
+				continue;
+			final Sequence seq = dictionary.getSequence(id);
+			for (int occur = 1; occur < row.length; occur++)
+				newSequences.put(seq, occur, row[occur]);
+			newSequences.put(seq, 0, row[0]);
+		}
 		return newSequences;
 	}
 
-	/** Get the support of given sequences */
+	/** Get the support of given sequences (omitting unsupported ones) */
 	static Map<Sequence, Long> getSupportsOfSequences(final TransactionDatabase transactions,
 			final Set<Sequence> sequences) {
-		return transactions.getTransactionList().parallelStream().map(t -> {
-			final HashSet<Sequence> supportedSeqs = new HashSet<>();
-			for (final Sequence seq : sequences) {
-				if (t.contains(seq))
-					supportedSeqs.add(seq);
-			}
-			return supportedSeqs;
-		}).flatMap(Set::stream).collect(groupingBy(identity(), counting()));
+		final List<Sequence> sequenceList = new ArrayList<>(sequences);
+		final int[] counts = new SequenceTrie(sequenceList).countSupports(transactions.getTransactionList());
+		final Map<Sequence, Long> supports = new HashMap<>();
+		for (int slot = 0; slot < counts.length; slot++) {
+			if (counts[slot] > 0)
+				supports.put(sequenceList.get(slot), (long) counts[slot]);
+		}
+		return supports;
 	}
 
 	private EMStep() {
@@ -2,13 +2,12 @@ package sequencemining.main;
 
 import java.io.Serializable;
 import java.util.BitSet;
-import java.util.Map;
-
-import com.google.common.collect.HashMultiset;
-import com.google.common.collect.Multiset;
-import com.google.common.collect.Table;
+import java.util.Comparator;
+import java.util.PriorityQueue;
 
 import sequencemining.sequence.Sequence;
+import sequencemining.transaction.Covering;
+import sequencemining.transaction.SequenceProbabilities;
 import sequencemining.transaction.Transaction;
 
 /** Container class for Inference Algorithms */
@@ -16,7 +15,18 @@ public class InferenceAlgorithms {
 
 	/** Interface for the different inference algorithms */
 	public interface InferenceAlgorithm {
-		public Multiset<Sequence> infer(final Transaction transaction);
+
+		/** Infer covering of transaction from its cached sequences */
+		public default Covering infer(final Transaction transaction) {
+			return infer(transaction, transaction.getCachedSequenceIds(), transaction.getCachedProbabilities());
+		}
+
+		/**
+		 * Infer covering of transaction from given cached sequence IDs and
+		 * their probabilities
+		 */
+		public Covering infer(final Transaction transaction, final int[] cachedSequenceIds,
+				final SequenceProbabilities cachedProbabilities);
 	}
 
 	/**
@@ -29,21 +39,23 @@ public class InferenceAlgorithms {
 		private static final long serialVersionUID = 9173178089235828142L;
 
 		@Override
-		public Multiset<Sequence> infer(final Transaction transaction) {
+		public Covering infer(final Transaction transaction, final int[] cachedSequenceIds,
+				final SequenceProbabilities cachedProbabilities) {
 
-			final Multiset<Sequence> covering = HashMultiset.create();
+			final Covering covering = new Covering();
 			int lenCovering = 0;
 			final int transactionSize = transaction.size();
 			final BitSet coveredItems = new BitSet(transactionSize);
 
-			final Table<Sequence, Integer, Double> cachedSequences = transaction.getCachedSequences();
 			while (coveredItems.cardinality() != transactionSize) {
 
 				double minCostPerItem = Double.POSITIVE_INFINITY;
+				int bestSeqId = -1;
 				Sequence bestSeq = null;
 				BitSet bestSeqCoveredItems = null;
 
-				for (final Sequence seq : cachedSequences.rowKeySet()) {
+				for (final int id : cachedSequenceIds) {
+					final Sequence seq = cachedProbabilities.getSequence(id);
 
 					// How many additional items does sequence cover?
 					final BitSet seqCoveredItems = transaction.getCovered(seq, coveredItems);
@@ -52,24 +64,15 @@ public class InferenceAlgorithms {
 						continue;
 
 					// Get seq multiplicity in covering
-					final int occur = covering.count(seq);
+					final int occur = covering.count(id);
 
-					// TODO triple check that this is right!!!
 					// Calculate f(CuS) - f(C)
-					Double prob1 = cachedSequences.get(seq, occur + 1);
-					if (prob1 == null)
-						prob1 = 0.; // Empty multiplicities have zero prob
-					else if (prob1 == 0. && isInnerProb(occur + 1, cachedSequences.row(seq)))
-						prob1 = Double.MIN_VALUE; // Smooth zero inner probs
-					double prob = cachedSequences.get(seq, occur);
-					if (prob == 0. && isInnerProb(occur, cachedSequences.row(seq)))
-						prob = Double.MIN_VALUE; // Smooth zero inner probs
-					final double cost = -Math.log(prob1) + Math.log(prob)
-							+ sumLogRange(lenCovering + 1, lenCovering + seq.size());
-					final double costPerItem = cost / seq.size();
+					final double costPerItem = getCostPerItem(cachedProbabilities.getRow(id), seq, occur,
+							lenCovering);
 
 					if (costPerItem < minCostPerItem) {
 						minCostPerItem = costPerItem;
+						bestSeqId = id;
 						bestSeq = seq;
 						bestSeqCoveredItems = seqCoveredItems;
 					}
@@ -80,7 +83,7 @@ public class InferenceAlgorithms {
 					// final int firstItemCovered = bestSeqCoveredItems
 					// .nextSetBit(0);
 					// covering.put(bestSeq, firstItemCovered);
-					covering.add(bestSeq);
+					covering.add(bestSeqId);
 					lenCovering += bestSeq.size();
 					coveredItems.or(bestSeqCoveredItems);
 				} else { // Fill in incomplete coverings with singletons
@@ -88,7 +91,7 @@ public class InferenceAlgorithms {
 					while (coveredItems.cardinality() != transactionSize) {
 						index = coveredItems.nextClearBit(index);
 						final Sequence seq = new Sequence(transaction.get(index));
-						covering.add(seq);
+						covering.add(cachedProbabilities.getDictionary().getId(seq));
 						coveredItems.set(index);
 					}
 					return covering;
@@ -98,21 +101,160 @@ public class InferenceAlgorithms {
 			return covering;
 		}
 
-		private boolean isInnerProb(final int probIndex, final Map<Integer, Double> probVec) {
-			for (int i = probIndex + 1; i < probVec.size(); i++) {
-				if (probVec.get(i) != 0.)
-					return true;
+	}
+
+	/**
+	 * Infer ML parameters to explain transaction using lazy greedy algorithm
+	 * and store in covering. Sequences *may not* overlap.
+	 * <p>
+	 * Gives identical coverings to {@link InferGreedy}, but keeps the candidate
+	 * sequences in a min-heap keyed by cost per item and only re-evaluates the
+	 * top of the heap (lazy evaluation). This is valid as adding a sequence to
+	 * the covering can only increase the cost of the other sequences.
+	 * <p>
+	 * !! Assumes *no overlap* !! i.e. subseqs in covering are pairwise disjoint
+	 */
+	public static class InferLazyGreedy implements InferenceAlgorithm, Serializable {
+		private static final long serialVersionUID = -4541735427290938306L;
+
+		/** Heap entry for a candidate sequence */
+		private static class Candidate {
+			final int id;
+			final Sequence seq;
+			final double[] probs;
+			final int rank; // position in cache iteration order
+			double costPerItem;
+			int step; // greedy step at which cost was evaluated
+			BitSet coveredItems;
+
+			Candidate(final int id, final Sequence seq, final double[] probs, final int rank) {
+				this.id = id;
+				this.seq = seq;
+				this.probs = probs;
+				this.rank = rank;
 			}
-			return false;
 		}
 
-		private double sumLogRange(final int a, final int b) {
-			double sum = 0;
-			for (int i = a; i <= b; i++)
-				sum += Math.log(i);
-			return sum;
+		private static final Comparator<Candidate> ORDER = (c1, c2) -> {
+			final int cmp = Double.compare(c1.costPerItem, c2.costPerItem);
+			return cmp != 0 ? cmp : Integer.compare(c1.rank, c2.rank);
+		};
+
+		@Override
+		public Covering infer(final Transaction transaction, final int[] cachedSequenceIds,
+				final SequenceProbabilities cachedProbabilities) {
+
+			final Covering covering = new Covering();
+			int lenCovering = 0;
+			final int transactionSize = transaction.size();
+			final BitSet coveredItems = new BitSet(transactionSize);
+
+			// Evaluate all sequences for the empty covering
+			final PriorityQueue<Candidate> queue = new PriorityQueue<>(Math.max(1, cachedSequenceIds.length), ORDER);
+			int rank = 0;
+			for (final int id : cachedSequenceIds) {
+				final Candidate cand = new Candidate(id, cachedProbabilities.getSequence(id),
+						cachedProbabilities.getRow(id), rank++);
+				if (evaluate(cand, transaction, covering, coveredItems, lenCovering, 0))
+					queue.add(cand);
+			}
+
+			int step = 0;
+			while (coveredItems.cardinality() != transactionSize) {
+
+				// Pop until the top of the heap is up to date
+				Candidate best = null;
+				for (Candidate top; (top = queue.poll()) != null;) {
+					if (top.step == step) {
+						best = top;
+						break;
+					}
+					if (evaluate(top, transaction, covering, coveredItems, lenCovering, step))
+						queue.add(top);
+				}
+
+				if (best != null) {
+					covering.add(best.id);
+					lenCovering += best.seq.size();
+					coveredItems.or(best.coveredItems);
+					step++;
+					// Multiplicity of best changed so its cost may have decreased
+					if (evaluate(best, transaction, covering, coveredItems, lenCovering, step))
+						queue.add(best);
+				} else { // Fill in incomplete coverings with singletons
+					int index = 0;
+					while (coveredItems.cardinality() != transactionSize) {
+						index = coveredItems.nextClearBit(index);
+						final Sequence seq = new Sequence(transaction.get(index));
+						covering.add(cachedProbabilities.getDictionary().getId(seq));
+						coveredItems.set(index);
+					}
+					return covering;
+				}
+
+			}
+			return covering;
 		}
 
+		/**
+		 * Evaluate the cost per item of given candidate at the given step
+		 *
+		 * @return false if the candidate can never be added to the covering
+		 */
+		private boolean evaluate(final Candidate cand, final Transaction transaction,
+				final Covering covering, final BitSet coveredItems, final int lenCovering,
+				final int step) {
+			// Sequences which don't cover anything never will again
+			final BitSet seqCoveredItems = transaction.getCovered(cand.seq, coveredItems);
+			if (seqCoveredItems.isEmpty())
+				return false;
+			final double costPerItem = getCostPerItem(cand.probs, cand.seq, covering.count(cand.id), lenCovering);
+			// Infinite (or NaN) costs are never chosen (cf. InferGreedy)
+			if (!(costPerItem < Double.POSITIVE_INFINITY))
+				return false;
+			cand.costPerItem = costPerItem;
+			cand.coveredItems = seqCoveredItems;
+			cand.step = step;
+			return true;
+		}
+
+	}
+
+	/**
+	 * Calculate the cost per item f(CuS) - f(C) of adding given sequence with
+	 * given probabilities to a covering containing it occur times
+	 */
+	private static double getCostPerItem(final double[] probs, final Sequence seq, final int occur,
+			final int lenCovering) {
+		// TODO triple check that this is right!!!
+		double prob1;
+		if (occur + 1 >= probs.length)
+			prob1 = 0.; // Empty multiplicities have zero prob
+		else {
+			prob1 = probs[occur + 1];
+			if (prob1 == 0. && isInnerProb(occur + 1, probs))
+				prob1 = Double.MIN_VALUE; // Smooth zero inner probs
+		}
+		double prob = probs[occur];
+		if (prob == 0. && isInnerProb(occur, probs))
+			prob = Double.MIN_VALUE; // Smooth zero inner probs
+		final double cost = -Math.log(prob1) + Math.log(prob) + sumLogRange(lenCovering + 1, lenCovering + seq.size());
+		return cost / seq.size();
+	}
+
+	private static boolean isInnerProb(final int probIndex, final double[] probs) {
+		for (int i = probIndex + 1; i < probs.length; i++) {
+			if (probs[i] != 0.)
+				return true;
+		}
+		return false;
+	}
+
+	private static double sumLogRange(final int a, final int b) {
+		double sum = 0;
+		for (int i = a; i <= b; i++)
+			sum += Math.log(i);
+		return sum;
 	}
 
 	// /**
@@ -3,11 +3,9 @@ package sequencemining.main;
 import java.io.File;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.List;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.logging.Level;
@@ -21,17 +19,23 @@ import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParameterException;
 import com.google.common.base.Charsets;
-import com.google.common.collect.HashBasedTable;
-import com.google.common.collect.HashMultiset;
-import com.google.common.collect.Multiset;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Table;
 import com.google.common.io.Files;
 
-import sequencemining.main.InferenceAlgorithms.InferGreedy;
+import sequencemining.main.InferenceAlgorithms.InferLazyGreedy;
 import sequencemining.main.InferenceAlgorithms.InferenceAlgorithm;
+import sequencemining.sequence.PositionIndex;
 import sequencemining.sequence.Sequence;
+import sequencemining.transaction.BinaryTransactionList;
+import sequencemining.transaction.CompressedTransactionDatabase;
+import sequencemining.transaction.ItemMap;
+import sequencemining.transaction.SegmentedTransactionDatabase;
 import sequencemining.transaction.Transaction;
+import sequencemining.transaction.TransactionDatabase;
 import sequencemining.transaction.TransactionList;
+import sequencemining.transaction.TransactionReader;
 import sequencemining.util.Logging;
 
 public class SequenceMining extends SequenceMiningCore {
@@ -55,6 +59,21 @@ public class SequenceMining extends SequenceMiningCore {
 		@Parameter(names = { "-r", "--runtime" }, description = "Max Runtime (min)")
 		long maxRunTime = 72 * 60; // 12hrs
 
+		@Parameter(names = { "-k", "--speculate" }, description = "No. of candidates to evaluate concurrently")
+		int speculativeCandidates = 1;
+
+		@Parameter(names = { "-b", "--batch" }, description = "Max candidates with disjoint support accepted per step")
+		int maxBatchCandidates = 1;
+
+		@Parameter(names = { "-o", "--out-of-core" }, description = "Transactions per on-disk segment (0 = in memory)")
+		int segmentSize = 0;
+
+		@Parameter(names = { "-z", "--compress" }, description = "Keep out-of-core segments compressed in memory")
+		boolean compressSegments = false;
+
+		@Parameter(names = { "-m", "--remap" }, description = "Remap items to dense IDs by frequency", arity = 1)
+		boolean remapItems = true;
+
 		@Parameter(names = { "-t", "--timestamp" }, description = "Timestamp Logfile", arity = 1)
 		boolean timestampLog = true;
 
@@ -68,7 +87,7 @@ public class SequenceMining extends SequenceMiningCore {
 	public static void main(final String[] args) throws IOException {
 
 		// Main fixed parameters
-		final InferenceAlgorithm inferenceAlg = new InferGreedy();
+		final InferenceAlgorithm inferenceAlg = new InferLazyGreedy();
 
 		// Runtime parameters
 		final Parameters params = new Parameters();
@@ -76,10 +95,17 @@ public class SequenceMining extends SequenceMiningCore {
 
 		try {
 			jc.parse(args);
+			if (params.compressSegments && params.segmentSize <= 0)
+				throw new ParameterException("Compressed segments (-z) require out-of-core segments (-o > 0)");
 
 			// Set loglevel, runtime, timestamp and log file
 			LOG_LEVEL = params.logLevel;
 			MAX_RUNTIME = params.maxRunTime * 60 * 1_000;
+			SPECULATIVE_CANDIDATES = params.speculativeCandidates;
+			MAX_BATCH_CANDIDATES = params.maxBatchCandidates;
+			SEGMENT_SIZE = params.segmentSize;
+			COMPRESS_SEGMENTS = params.compressSegments;
+			REMAP_ITEMS = params.remapItems;
 			File logFile = null;
 			if (!params.verbose)
 				logFile = Logging.getLogFileName("ISM", params.timestampLog, LOG_DIR, params.dataset);
@@ -110,29 +136,57 @@ public class SequenceMining extends SequenceMiningCore {
 		logger.info("========== INTERESTING SEQUENCE MINING ============");
 		logger.info("\n Time: " + new SimpleDateFormat("dd.MM.yyyy-HH:mm:ss").format(new Date()));
 		logger.info("\n Inputs: -f " + inputFile + " -s " + maxStructureSteps + " -i " + maxEMIterations + " -r "
-				+ MAX_RUNTIME / 60_000);
-
-		// Read in transaction database
-		final TransactionList transactions = readTransactions(inputFile);
-
-		// Determine initial probabilities
-		final Table<Sequence, Integer, Double> initProbs = scanDatabaseToDetermineInitialProbabilities(inputFile);
+				+ MAX_RUNTIME / 60_000 + " -k " + SPECULATIVE_CANDIDATES + " -b "
+				+ MAX_BATCH_CANDIDATES + " -o " + SEGMENT_SIZE + " -z " + COMPRESS_SEGMENTS + " -m " + REMAP_ITEMS);
+
+		// Read in transaction database and determine initial probabilities
+		// (in the same pass if the database fits in memory), optionally
+		// remapping items to dense items in decreasing order of frequency
+		final TransactionDatabase transactions;
+		Table<Sequence, Integer, Double> initProbs;
+		if (COMPRESS_SEGMENTS && SEGMENT_SIZE <= 0)
+			logger.warning("\n Compressed segments require out-of-core segments, reading transactions into memory.\n");
+		if (SEGMENT_SIZE > 0) {
+			initProbs = scanDatabaseToDetermineInitialProbabilities(inputFile);
+			final ItemMap itemMap = REMAP_ITEMS ? ItemMap.rankedBy(initProbs) : null;
+			if (itemMap != null)
+				initProbs = itemMap.toDense(initProbs);
+			transactions = readSegments(inputFile, SEGMENT_SIZE,
+					COMPRESS_SEGMENTS ? CompressedTransactionDatabase.rankItems(initProbs) : null, itemMap);
+		} else {
+			final TransactionList transactionList = readTransactions(inputFile, REMAP_ITEMS);
+			transactions = transactionList;
+			initProbs = transactionList.getInitialProbabilities();
+		}
 
 		// Run inference to find interesting sequences
-		logger.fine("\n============= SEQUENCE INFERENCE =============\n");
-		final Table<Sequence, Integer, Double> sequences = structuralEM(transactions, initProbs, inferenceAlgorithm,
-				maxStructureSteps, maxEMIterations);
-		if (LOG_LEVEL.equals(Level.FINEST))
-			logger.finest(
-					"\n======= Transaction Database =======\n" + Files.toString(inputFile, Charsets.UTF_8) + "\n");
-
-		// Calculate probabilities: p(S \in X) = p(z_S >= 1) = 1 - \pi_S_0
-		final HashMap<Sequence, Double> sequenceMap = new HashMap<>();
-		for (final Sequence seq : sequences.rowKeySet())
-			sequenceMap.put(seq, 1 - sequences.get(seq, 0));
-
-		// Sort sequences by interestingness
-		final HashMap<Sequence, Double> intMap = calculateInterestingness(sequenceMap, transactions);
+		final Table<Sequence, Integer, Double> sequences;
+		HashMap<Sequence, Double> sequenceMap = new HashMap<>();
+		HashMap<Sequence, Double> intMap;
+		try {
+			logger.fine("\n============= SEQUENCE INFERENCE =============\n");
+			sequences = structuralEM(transactions, initProbs, inferenceAlgorithm, maxStructureSteps,
+					maxEMIterations);
+			if (LOG_LEVEL.equals(Level.FINEST) && !BinaryTransactionList.isBinary(inputFile))
+				logger.finest("\n======= Transaction Database =======\n"
+						+ Files.toString(inputFile, Charsets.UTF_8) + "\n");
+
+			// Calculate probabilities: p(S \in X) = p(z_S >= 1) = 1 - \pi_S_0
+			for (final Sequence seq : sequences.rowKeySet())
+				sequenceMap.put(seq, 1 - sequences.get(seq, 0));
+
+			// Interestingness is calculated from the transactions
+			intMap = calculateInterestingness(sequenceMap, transactions);
+		} finally {
+			transactions.close();
+		}
+
+		// Sort sequences (with their original items) by interestingness
+		final ItemMap itemMap = transactions.getItemMap();
+		if (itemMap != null) {
+			sequenceMap = itemMap.toOriginal(sequenceMap);
+			intMap = itemMap.toOriginal(intMap);
+		}
 		final Map<Sequence, Double> sortedSequences = sortSequences(sequenceMap, intMap);
 
 		logger.info("\n============= INTERESTING SEQUENCES =============\n");
@@ -144,37 +198,105 @@ public class SequenceMining extends SequenceMiningCore {
 
 		// Optionally save sequence count distribution
 		if (saveCountDist) {
-			Logging.serialize(sequences, FilenameUtils.removeExtension(logFile.getAbsolutePath()) + ".dist");
+			Logging.serialize(itemMap != null ? itemMap.toOriginal(sequences) : sequences,
+					FilenameUtils.removeExtension(logFile.getAbsolutePath()) + ".dist");
 		}
 
 		return sortedSequences;
 	}
 
 	public static TransactionList readTransactions(final File inputFile) throws IOException {
+		return readTransactions(inputFile, false);
+	}
 
-		final List<Transaction> transactions = new ArrayList<>();
-
-		// for each line (transaction) until the end of file
-		final LineIterator it = FileUtils.lineIterator(inputFile, "UTF-8");
-		while (it.hasNext()) {
+	/**
+	 * Read transactions, optionally remapping items to dense items in
+	 * decreasing order of frequency as they are loaded (see {@link ItemMap})
+	 */
+	public static TransactionList readTransactions(final File inputFile, final boolean remapItems)
+			throws IOException {
+		if (BinaryTransactionList.isBinary(inputFile))
+			return new BinaryTransactionList(inputFile, remapItems);
+		return TransactionReader.read(inputFile, remapItems);
+	}
 
-			final String line = it.nextLine();
-			// if the line is a comment, is empty or is a
-			// kind of metadata
-			if (line.isEmpty() == true || line.charAt(0) == '#' || line.charAt(0) == '%' || line.charAt(0) == '@') {
-				continue;
-			}
+	/**
+	 * Read transactions into an out-of-core database of on-disk segments
+	 *
+	 * @param segmentSize
+	 *            no. of transactions per segment
+	 */
+	public static SegmentedTransactionDatabase readSegmentedTransactions(final File inputFile, final int segmentSize)
+			throws IOException {
+		return readSegments(inputFile, segmentSize, null, null);
+	}
 
-			// split the transaction into items
-			final String[] lineSplited = line.split(" ");
-			// convert to Transaction class and add it to the structure
-			transactions.add(getTransaction(lineSplited));
+	/**
+	 * Read transactions into an out-of-core database of segments compressed in
+	 * memory
+	 *
+	 * @param segmentSize
+	 *            no. of transactions per segment
+	 * @param rankedItems
+	 *            items in decreasing order of frequency
+	 */
+	public static CompressedTransactionDatabase readCompressedTransactions(final File inputFile,
+			final int segmentSize, final int[] rankedItems) throws IOException {
+		return (CompressedTransactionDatabase) readSegments(inputFile, segmentSize, rankedItems, null);
+	}
 
+	/**
+	 * Read transactions into an out-of-core database, compressed in memory if
+	 * ranked items are given and with items remapped if an item map is given
+	 */
+	private static SegmentedTransactionDatabase readSegments(final File inputFile, final int segmentSize,
+			final int[] rankedItems, final ItemMap itemMap) throws IOException {
+		final int maxResidentSegments = 2 * Runtime.getRuntime().availableProcessors() + 2;
+		LineIterator it = null;
+		try {
+			Iterator<Transaction> transactions;
+			if (BinaryTransactionList.isBinary(inputFile)) {
+				transactions = BinaryTransactionList.iterator(inputFile);
+			} else {
+				it = FileUtils.lineIterator(inputFile, "UTF-8");
+				transactions = transactionIterator(it);
+			}
+			if (itemMap != null)
+				transactions = Iterators.transform(transactions, itemMap::toDense);
+			final SegmentedTransactionDatabase database = rankedItems != null
+					? new CompressedTransactionDatabase(transactions, rankedItems, segmentSize, maxResidentSegments)
+					: new SegmentedTransactionDatabase(transactions, segmentSize, maxResidentSegments);
+			database.setItemMap(itemMap);
+			return database;
+		} finally {
+			LineIterator.closeQuietly(it);
 		}
-		// close the input file
-		LineIterator.closeQuietly(it);
+	}
 
-		return new TransactionList(transactions);
+	/** Iterate over the transactions in given lines */
+	public static Iterator<Transaction> transactionIterator(final LineIterator it) {
+		return new AbstractIterator<Transaction>() {
+			@Override
+			protected Transaction computeNext() {
+				// for each line (transaction) until the end of file
+				while (it.hasNext()) {
+
+					final String line = it.nextLine();
+					// if the line is a comment, is empty or is a
+					// kind of metadata
+					if (line.isEmpty() == true || line.charAt(0) == '#' || line.charAt(0) == '%'
+							|| line.charAt(0) == '@') {
+						continue;
+					}
+
+					// split the transaction into items
+					final String[] lineSplited = line.split(" ");
+					// convert to Transaction class
+					return getTransaction(lineSplited);
+				}
+				return endOfData();
+			}
+		};
 	}
 
 	/**
@@ -190,6 +312,9 @@ public class SequenceMining extends SequenceMiningCore {
 			if (integers[i].equals("-1")) { // end of item
 
 			} else if (integers[i].equals("-2")) { // end of sequence
+				sequence.trimToSize();
+				if (sequence.size() >= PositionIndex.MIN_SEQUENCE_LENGTH)
+					sequence.buildIndex();
 				return sequence;
 			} else { // extract the value for an item
 				sequence.add(Integer.parseInt(integers[i]));
@@ -208,72 +333,9 @@ public class SequenceMining extends SequenceMiningCore {
 	 */
 	public static Table<Sequence, Integer, Double> scanDatabaseToDetermineInitialProbabilities(final File inputFile)
 			throws IOException {
-
-		// Sequence x occurence x count
-		final Table<Sequence, Integer, Double> supports = HashBasedTable.create();
-
-		// for each line (transaction) until the end of file
-		int noTransactions = 0;
-		final LineIterator it = FileUtils.lineIterator(inputFile, "UTF-8");
-		while (it.hasNext()) {
-
-			final String line = it.nextLine();
-			// if the line is a comment, is empty or is a kind of metadata
-			if (line.isEmpty() == true || line.charAt(0) == '#' || line.charAt(0) == '%' || line.charAt(0) == '@') {
-				continue;
-			}
-
-			// split the line into items
-			final String[] lineSplit = line.split(" ");
-			// for each item
-			final Multiset<Sequence> seenItems = HashMultiset.create();
-			for (final String itemString : lineSplit) {
-				final int item = Integer.parseInt(itemString);
-				if (item >= 0) // ignore end of itemset/sequence tags
-					seenItems.add(new Sequence(item));
-			}
-			// increase the support count of the items
-			for (final Sequence seq : seenItems.elementSet()) {
-				final int occur = seenItems.count(seq);
-				if (supports.contains(seq, occur)) {
-					final double supp = supports.get(seq, occur);
-					supports.put(seq, occur, supp + 1);
-				} else {
-					supports.put(seq, occur, 1.);
-				}
-			}
-
-			noTransactions++;
-		}
-
-		// close the input file
-		LineIterator.closeQuietly(it);
-
-		for (final Sequence seq : supports.rowKeySet()) {
-			// Pad with zero counts for non-occurrences
-			final int maxOccur = Collections.max(supports.row(seq).keySet());
-			for (int occur = 1; occur <= maxOccur; occur++) {
-				if (!supports.contains(seq, occur))
-					supports.put(seq, occur, 0.);
-			} // Add counts for zero occurrences
-			double rowSum = 0;
-			for (final Double count : supports.row(seq).values())
-				rowSum += count;
-			supports.put(seq, 0, noTransactions - rowSum);
-		}
-
-		// Normalize
-		for (final Sequence seq : supports.rowKeySet()) {
-			double rowSum = 0;
-			for (final Double prob : supports.row(seq).values())
-				rowSum += prob;
-			for (final Integer occur : supports.row(seq).keySet()) {
-				final double normProb = supports.get(seq, occur) / rowSum;
-				supports.put(seq, occur, normProb);
-			}
-		}
-
-		return supports;
+		if (BinaryTransactionList.isBinary(inputFile))
+			return BinaryTransactionList.readInitialProbabilities(inputFile);
+		return TransactionReader.readInitialProbabilities(inputFile);
 	}
 
 	/** Convert string level to level class */
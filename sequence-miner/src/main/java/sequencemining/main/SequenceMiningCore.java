@@ -1,15 +1,15 @@
 package sequencemining.main;
 
+import static java.util.stream.Collectors.toList;
+
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.BitSet;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.PriorityQueue;
-import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -20,10 +20,13 @@ import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.Ordering;
 import com.google.common.collect.Table;
 
+import sequencemining.main.EMStep.CandidateEvaluation;
 import sequencemining.main.InferenceAlgorithms.InferenceAlgorithm;
 import sequencemining.sequence.Sequence;
+import sequencemining.sequence.SequenceDictionary;
+import sequencemining.transaction.SupportingTransactions;
 import sequencemining.transaction.TransactionDatabase;
-import sequencemining.util.Tuple2;
+import sequencemining.util.DenseIntMap;
 
 public abstract class SequenceMiningCore {
 
@@ -37,6 +40,12 @@ public abstract class SequenceMiningCore {
 	/** Variable settings */
 	protected static Level LOG_LEVEL = Level.FINE;
 	protected static long MAX_RUNTIME = 24 * 60 * 60 * 1_000; // 24hrs
+	protected static int SPECULATIVE_CANDIDATES = 1; // evaluated concurrently
+	protected static int MAX_BATCH_CANDIDATES = 1; // accepted per structural step
+	protected static int MAX_CACHED_SUPPORTS = 1 << 22; // generated candidates
+	protected static int SEGMENT_SIZE = 0; // transactions per on-disk segment (0 = in memory)
+	protected static boolean COMPRESS_SEGMENTS = false; // keep segments compressed in memory instead
+	protected static boolean REMAP_ITEMS = true; // to dense items in decreasing order of frequency
 
 	/**
 	 * Learn itemsets model using structural EM
@@ -56,33 +65,25 @@ public abstract class SequenceMiningCore {
 		// }
 
 		// Intialize supports with singletons and their actual supports
-		final HashMap<Sequence, Integer> supports = new HashMap<>();
+		final SequenceDictionary dictionary = transactions.getDictionary();
+		final DenseIntMap supports = new DenseIntMap(-1);
 		final int noTransactions = transactions.size();
 		for (final Sequence seq : sequences.rowKeySet()) {
 			final int support = (int) Math.round((1 - sequences.get(seq, 0)) * noTransactions);
-			supports.put(seq, support);
+			supports.put(dictionary.getId(seq), support);
 		}
-		logger.fine(" Initial sequences: " + probsToString(sequences) + "\n");
+		logger.fine(" Initial sequences: " + probsToString(sequences, transactions) + "\n");
 
-		// Initialize list of rejected seqs
-		final Set<Sequence> rejected_seqs = new HashSet<>();
+		// Define decreasing support ordering for sequence IDs
+		final Comparator<Integer> supportOrdering = (id1, id2) -> {
+			final int cmp = supports.get(id2) - supports.get(id1);
+			return cmp != 0 ? cmp
+					: transactions.compareAsStrings(dictionary.getSequence(id1), dictionary.getSequence(id2));
+		};
 
-		// Define decreasing support ordering for sequences
-		final Ordering<Sequence> supportOrdering = new Ordering<Sequence>() {
-			@Override
-			public int compare(final Sequence seq1, final Sequence seq2) {
-				return supports.get(seq2) - supports.get(seq1);
-			}
-		}.compound(Ordering.usingToString());
-
-		// Define decreasing support ordering for candidate sequences
-		final HashMap<Sequence, Integer> candidateSupports = new HashMap<>();
-		final Ordering<Sequence> candidateSupportOrdering = new Ordering<Sequence>() {
-			@Override
-			public int compare(final Sequence seq1, final Sequence seq2) {
-				return candidateSupports.get(seq2) - candidateSupports.get(seq1);
-			}
-		}.compound(Ordering.usingToString());
+		// Set up candidate generator and queue (persistent across iterations)
+		final CandidateGenerator candidateGenerator = new CandidateGenerator(transactions, sequences,
+				supportOrdering, MAX_CACHED_SUPPORTS);
 
 		// Initialize average cost per transaction for singletons
 		expectationMaximizationStep(sequences, transactions, inferenceAlgorithm);
@@ -93,8 +94,7 @@ public abstract class SequenceMiningCore {
 
 			// Learn structure
 			logger.finer("\n----- Itemset Combination at Step " + iteration + "\n");
-			combineSequencesStep(sequences, transactions, rejected_seqs, inferenceAlgorithm, maxStructureSteps,
-					supportOrdering, supports, candidateSupportOrdering, candidateSupports);
+			combineSequencesStep(sequences, transactions, inferenceAlgorithm, maxStructureSteps, candidateGenerator);
 			if (transactions.getIterationLimitExceeded())
 				breakLoop = true;
 			logger.finer(String.format(" Average cost: %.2f%n", transactions.getAverageCost()));
@@ -127,6 +127,7 @@ public abstract class SequenceMiningCore {
 			if (iteration == maxEMIterations)
 				logger.warning("\nEM iteration limit exceeded.\n");
 		}
+		logger.info("\n" + candidateGenerator.getStatistics() + "\n");
 		logger.info("\nElapsed time: " + (System.currentTimeMillis() - startTime) / (60. * 1000.) + " minutes.\n");
 
 		return sequences;
@@ -142,7 +143,7 @@ public abstract class SequenceMiningCore {
 	private static void expectationMaximizationStep(final Table<Sequence, Integer, Double> sequences,
 			final TransactionDatabase transactions, final InferenceAlgorithm inferenceAlgorithm) {
 
-		logger.fine(" Structure Optimal Sequences: " + probsToString(sequences) + "\n");
+		logger.fine(" Structure Optimal Sequences: " + probsToString(sequences, transactions) + "\n");
 
 		Table<Sequence, Integer, Double> prevSequences = sequences;
 
@@ -155,7 +156,7 @@ public abstract class SequenceMiningCore {
 			final Table<Sequence, Integer, Double> newSequences;
 
 			// Parallel E-step and M-step combined
-			newSequences = EMStep.hardEMStep(transactions.getTransactionList(), inferenceAlgorithm);
+			newSequences = EMStep.hardEMStep(transactions, inferenceAlgorithm);
 
 			// If set has stabilised calculate norm(P_prev - P_new)
 			if (prevSequences.rowKeySet().equals(newSequences.rowKeySet())) {
@@ -175,23 +176,23 @@ public abstract class SequenceMiningCore {
 				if (Math.abs(newNormDiff - normDiff) == 0.) {
 					logger.warning(" EM oscillating between two states, taking best cost solution...\n");
 					final double newCost = EMStep.calculateAverageCost(transactions);
-					prevSequences = EMStep.hardEMStep(transactions.getTransactionList(), inferenceAlgorithm);
+					prevSequences = EMStep.hardEMStep(transactions, inferenceAlgorithm);
 					final double prevCost = EMStep.calculateAverageCost(transactions);
 					if (newCost < prevCost) // Back to newSequences in the cache
-						prevSequences = EMStep.hardEMStep(transactions.getTransactionList(), inferenceAlgorithm);
+						prevSequences = EMStep.hardEMStep(transactions, inferenceAlgorithm);
 					break;
 				} else if (Math.abs(Math.abs(newNormDiff - normDiff - prevNormDiff)) == 0.) {
 					logger.warning(" EM oscillating between three states, taking best cost solution...\n");
 					final double newCost = EMStep.calculateAverageCost(transactions);
-					EMStep.hardEMStep(transactions.getTransactionList(), inferenceAlgorithm);
+					EMStep.hardEMStep(transactions, inferenceAlgorithm);
 					final double prevCost1 = EMStep.calculateAverageCost(transactions);
-					EMStep.hardEMStep(transactions.getTransactionList(), inferenceAlgorithm);
+					EMStep.hardEMStep(transactions, inferenceAlgorithm);
 					final double prevCost2 = EMStep.calculateAverageCost(transactions);
 					if (newCost < prevCost1 && newCost < prevCost2) // newSequences
-						prevSequences = EMStep.hardEMStep(transactions.getTransactionList(), inferenceAlgorithm);
+						prevSequences = EMStep.hardEMStep(transactions, inferenceAlgorithm);
 					else if (prevCost1 < prevCost2 && prevCost1 < newCost) { // prevSequences
-						EMStep.hardEMStep(transactions.getTransactionList(), inferenceAlgorithm);
-						prevSequences = EMStep.hardEMStep(transactions.getTransactionList(), inferenceAlgorithm);
+						EMStep.hardEMStep(transactions, inferenceAlgorithm);
+						prevSequences = EMStep.hardEMStep(transactions, inferenceAlgorithm);
 					}
 					break;
 				}
@@ -211,7 +212,7 @@ public abstract class SequenceMiningCore {
 
 		sequences.clear();
 		sequences.putAll(prevSequences);
-		logger.fine(" Parameter Optimal Sequences: " + probsToString(sequences) + "\n");
+		logger.fine(" Parameter Optimal Sequences: " + probsToString(sequences, transactions) + "\n");
 		logger.fine(String.format(" Average cost: %.2f%n", transactions.getAverageCost()));
 	}
 
@@ -219,110 +220,74 @@ public abstract class SequenceMiningCore {
 	 * Generate candidate sequences by combining existing seqs with highest
 	 * order. Evaluate candidates with highest order first.
 	 *
-	 * @param sequenceSupportOrdering
-	 *            ordering that determines which sequences to combine first
-	 * @param supports
-	 *            cached sequence supports for the above ordering
-	 * @param candidateSupportOrdering
-	 *            ordering that determines which candidates to evaluate first
-	 * @param candidateSupports
-	 *            cached candididate supports for the above ordering
+	 * @param candidateGenerator
+	 *            persistent generator and queue of candidates
 	 */
 	private static void combineSequencesStep(final Table<Sequence, Integer, Double> sequences,
-			final TransactionDatabase transactions, final Set<Sequence> rejected_seqs,
-			final InferenceAlgorithm inferenceAlgorithm, final int maxSteps,
-			final Ordering<Sequence> sequenceSupportOrdering, final HashMap<Sequence, Integer> supports,
-			final Ordering<Sequence> candidateSupportOrdering, final HashMap<Sequence, Integer> candidateSupports) {
-
-		// Set up support-ordered priority queue
-		final PriorityQueue<Sequence> candidateQueue = new PriorityQueue<Sequence>(maxSteps, candidateSupportOrdering);
-
-		// Sort sequences according to given ordering
-		final ArrayList<Sequence> sortedSequences = new ArrayList<>(sequences.rowKeySet());
-		Collections.sort(sortedSequences, sequenceSupportOrdering);
-
-		// Find maxSteps superseqs for all seqs
-		// final long startTime = System.nanoTime();
-		int noAdded = 0;
-		int istart = 0;
-		int jstart = 0;
-		int kstart = 0;
-		boolean exhausted = true;
-		final int len = sortedSequences.size();
-		while (noAdded < maxSteps && exhausted) {
-			exhausted = false;
-			int noUncached = 0;
-			final HashSet<Sequence> uncachedCandidates = new HashSet<>();
-			outerLoop: for (int k = kstart; k < 2 * len - 2; k++) {
-				for (int i = istart; i < len && i < k + 1; i++) {
-					for (int j = jstart; j < len && i + j < k + 1; j++) {
-						if (k <= i + j && i != j) {
-
-							// Create new candidates by joining seqs
-							final Sequence seq1 = sortedSequences.get(i);
-							final Sequence seq2 = sortedSequences.get(j);
-							final Sequence cand = new Sequence(seq1, seq2);
-
-							// Add candidate to queue
-							if (cand != null && !rejected_seqs.contains(cand)) {
-								final Integer supp = candidateSupports.get(cand);
-								if (supp == null) {
-									uncachedCandidates.add(cand);
-									noUncached++;
-								} else { // add cached candidate to queue
-									candidateQueue.add(cand);
-									noAdded++;
-								}
-							}
-
-							// Possibly found enough candidates
-							if (noAdded + noUncached >= maxSteps) {
-								istart = i;
-								jstart = j + 1;
-								kstart = k;
-								exhausted = true;
-								break outerLoop;
-							}
-						}
-					}
-					jstart = 0;
-				}
-				istart = 0;
-			}
-
-			// Add uncached candidates to queue
-			final Map<Sequence, Long> candidatesWithSupports = EMStep.getSupportsOfSequences(transactions,
-					uncachedCandidates);
-			for (final Entry<Sequence, Long> entry : candidatesWithSupports.entrySet()) {
-				final Sequence cand = entry.getKey();
-				final int supp = Math.toIntExact(entry.getValue());
-				if (supp > 0) { // ignore unsupported sequences
-					candidateSupports.put(cand, supp);
-					candidateQueue.add(cand);
-					noAdded++;
-				}
-			}
-		}
-		logger.info(" Finished bulding priority queue. Size: " + candidateQueue.size() + "\n");
+			final TransactionDatabase transactions, final InferenceAlgorithm inferenceAlgorithm, final int maxSteps,
+			final CandidateGenerator candidateGenerator) {
+		final SequenceDictionary dictionary = transactions.getDictionary();
+
+		// Queue joins of new sequences and top up queue with further joins
+		candidateGenerator.update(sequences);
+		final boolean exhausted = candidateGenerator.fill(maxSteps);
+		logger.info(" Finished bulding priority queue. Size: " + candidateGenerator.size() + "\n");
+		logger.finer(candidateGenerator.getStatistics() + "\n");
 		// logger.info(" Time taken: " + (System.nanoTime() - startTime) / 1e6);
 		// logger.finest(" Structural candidate itemsets: ");
 
-		// Evaluate candidates with highest support first
+		// Evaluate candidates with highest support first, speculatively
+		// evaluating the next few concurrently and accepting the first
+		// accepted in queue order (as if evaluated sequentially). Once a
+		// candidate is accepted, carry on with candidates whose supporting
+		// transactions are disjoint from those of the accepted batch so their
+		// costs are unaffected by it (up to the batch size)
 		int counter = 0;
-		for (Sequence topCandidate; (topCandidate = candidateQueue.poll()) != null;) {
-			// logger.finest("\n Candidate: " + topCandidate + ", supp: "
-			// + candidateSupports.get(topCandidate)
-			// / (double) transactions.size());
-			counter++;
-			rejected_seqs.add(topCandidate); // candidate seen
-			final boolean accepted = evaluateCandidate(sequences, transactions, inferenceAlgorithm, topCandidate);
-			if (accepted == true) { // Better itemset found
-				// update supports
-				supports.put(topCandidate, candidateSupports.get(topCandidate));
-				logger.info(" Number of eval calls: " + counter + "\n");
-				return;
+		int noAccepted = 0;
+		final BitSet batchTransactions = new BitSet(transactions.size());
+		final List<Integer> topCandidateIds = new ArrayList<>(SPECULATIVE_CANDIDATES);
+		final List<Integer> deferredCandidateIds = new ArrayList<>();
+		while (!candidateGenerator.isEmpty() && noAccepted < MAX_BATCH_CANDIDATES) {
+			topCandidateIds.clear();
+			for (Integer topCandidateId; topCandidateIds.size() < SPECULATIVE_CANDIDATES
+					&& (topCandidateId = candidateGenerator.poll()) != null;) {
+				if (!candidateGenerator.getSupportingTransactions(topCandidateId).intersects(batchTransactions))
+					topCandidateIds.add(topCandidateId);
+				else
+					deferredCandidateIds.add(topCandidateId);
+			}
+			final List<CandidateEvaluation> evaluations = topCandidateIds.parallelStream()
+					.map(id -> EMStep.structuralEMStep(transactions, inferenceAlgorithm, dictionary.getSequence(id),
+							candidateGenerator.getSupportingTransactions(id)))
+					.collect(toList());
+			for (int k = 0; k < topCandidateIds.size(); k++) {
+				final int topCandidateId = topCandidateIds.get(k);
+				// logger.finest("\n Candidate: " + topCandidate + ", supp: "
+				// + candidateSupports.get(topCandidateId)
+				// / (double) transactions.size());
+				counter++;
+				final SupportingTransactions supportingTransactions = candidateGenerator
+						.getSupportingTransactions(topCandidateId);
+				candidateGenerator.reject(topCandidateId); // candidate seen
+				final boolean accepted = evaluateCandidate(sequences, transactions,
+						dictionary.getSequence(topCandidateId), evaluations.get(k));
+				if (accepted == true) { // Better itemset found
+					noAccepted++;
+					// Re-evaluate speculated candidates against the new cache
+					batchTransactions.or(supportingTransactions.toBitSet());
+					for (int l = k + 1; l < topCandidateIds.size(); l++)
+						candidateGenerator.requeue(topCandidateIds.get(l));
+					break;
+				}
+				candidateGenerator.release(topCandidateId); // candidate rejected
 			}
 		}
+		for (final int candId : deferredCandidateIds)
+			candidateGenerator.requeue(candId);
+		if (noAccepted > 0) { // Better itemsets found
+			logger.info(" Number of eval calls: " + counter + "\n");
+			return;
+		}
 
 		if (exhausted) { // Priority queue exhausted
 			logger.warning("\n Priority queue exhausted. Exiting. \n");
@@ -338,21 +303,16 @@ public abstract class SequenceMiningCore {
 
 	/** Evaluate a candidate sequence to see if it should be included */
 	private static boolean evaluateCandidate(final Table<Sequence, Integer, Double> sequences,
-			final TransactionDatabase transactions, final InferenceAlgorithm inferenceAlgorithm,
-			final Sequence candidate) {
+			final TransactionDatabase transactions, final Sequence candidate, final CandidateEvaluation evaluation) {
 
-		logger.finer("\n Candidate: " + candidate);
+		logger.finer("\n Candidate: " + transactions.toOriginalItems(candidate));
 
-		// Find cost in parallel
-		Tuple2<Double, Map<Integer, Double>> costAndProb;
+		// Cost was found in parallel by the structural EM-step
 		// if (transactions instanceof TransactionRDD) {
 		// costAndProb = SparkEMStep.structuralEMStep(transactions,
 		// inferenceAlgorithm, candidate);
-		// } else {
-		costAndProb = EMStep.structuralEMStep(transactions, inferenceAlgorithm, candidate);
 		// }
-		final double curCost = costAndProb._1;
-		final Map<Integer, Double> prob = costAndProb._2;
+		final double curCost = evaluation.averageCost;
 		logger.finer(String.format(", cost: %.2f", curCost));
 
 		// Return if better collection of seqs found
@@ -364,7 +324,7 @@ public abstract class SequenceMiningCore {
 			// newItemsets = SparkEMStep.addAcceptedCandidateCache(
 			// transactions, candidate, prob);
 			// } else {
-			newSequences = EMStep.addAcceptedCandidateCache(transactions, candidate, prob);
+			newSequences = EMStep.addAcceptedCandidateCache(transactions, candidate, evaluation);
 			// }
 			// Update sequences with newly inferred sequences
 			sequences.clear();
@@ -448,11 +408,20 @@ public abstract class SequenceMiningCore {
 
 	/** Pretty printing of sequence probabilities */
 	public static String probsToString(final Table<Sequence, Integer, Double> probs) {
+		return probsToString(probs, null);
+	}
+
+	/**
+	 * Pretty printing of sequence probabilities with the original items of
+	 * given database (if not null)
+	 */
+	private static String probsToString(final Table<Sequence, Integer, Double> probs,
+			final TransactionDatabase transactions) {
 		final StringBuilder sb = new StringBuilder();
 		String prefix = "";
 		sb.append("{");
 		for (final Sequence seq : probs.rowKeySet()) {
-			sb.append(prefix + seq + "=(");
+			sb.append(prefix + (transactions != null ? transactions.toOriginalItems(seq) : seq) + "=(");
 			String prefix2 = "";
 			for (final Double prob : probs.row(seq).values()) {
 				sb.append(prefix2 + prob);
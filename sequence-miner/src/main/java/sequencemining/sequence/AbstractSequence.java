@@ -1,16 +1,39 @@
 package sequencemining.sequence;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.AbstractCollection;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+
+import com.google.common.primitives.Ints;
 
 public abstract class AbstractSequence extends AbstractCollection<Integer> implements Serializable {
 	private static final long serialVersionUID = 686688001826219278L;
 
-	protected List<Integer> items;
+	/** Items in this sequence (entries offset .. offset+length-1 are valid) */
+	protected int[] items;
+	protected int offset;
+	protected int length;
+
+	/** Whether the items array is shared with other sequences (read-only) */
+	private transient boolean shared;
+
+	/** Cached hash code (zero if not yet computed) */
+	private transient int hash;
+
+	/** Cached polynomial hash and BASE^length (power zero if not computed) */
+	private transient long polyHash;
+	private transient long polyPower;
+
+	/** Optional index of item positions (null if not built) */
+	private PositionIndex index;
 
 	/**
 	 * Add given items to this sequence
@@ -20,7 +43,8 @@ public abstract class AbstractSequence extends AbstractCollection<Integer> imple
 	 */
 	@Override
 	public boolean add(final Integer item) {
-		return this.items.add(item);
+		append(item);
+		return true;
 	}
 
 	/**
@@ -30,7 +54,9 @@ public abstract class AbstractSequence extends AbstractCollection<Integer> imple
 	 *            index of the element to return
 	 */
 	public int get(final int index) {
-		return this.items.get(index);
+		if (index >= length)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + length);
+		return this.items[offset + index];
 	}
 
 	/**
@@ -41,16 +67,27 @@ public abstract class AbstractSequence extends AbstractCollection<Integer> imple
 	 */
 	@Override
 	public boolean addAll(final Collection<? extends Integer> items) {
-		return this.items.addAll(items);
+		for (final int item : items)
+			append(item);
+		return !items.isEmpty();
 	}
 
 	/**
 	 * Get the items in this sequence
 	 *
-	 * @return the items
+	 * @return an unmodifiable list view of the items
 	 */
 	public List<Integer> getItems() {
-		return this.items;
+		return Collections.unmodifiableList(Ints.asList(this.items).subList(offset, offset + length));
+	}
+
+	/**
+	 * Get a copy of the items in this sequence
+	 *
+	 * @return the items as a primitive array
+	 */
+	public int[] toIntArray() {
+		return Arrays.copyOfRange(this.items, offset, offset + length);
 	}
 
 	/**
@@ -61,7 +98,62 @@ public abstract class AbstractSequence extends AbstractCollection<Integer> imple
 	 */
 	public void add(final Integer... items) {
 		for (final Integer set : items)
-			this.items.add(set);
+			append(set);
+	}
+
+	/** Trim the backing array to the number of items in this sequence */
+	public void trimToSize() {
+		if (!shared && length < this.items.length)
+			this.items = Arrays.copyOf(this.items, length);
+	}
+
+	/**
+	 * Back this sequence by given slice of a shared array (and given index of
+	 * it, may be null), which must hold its items or this sequence must be
+	 * empty (the items are copied out again if this sequence is added to)
+	 */
+	protected void setSharedItems(final int[] array, final int offset, final int length, final PositionIndex index) {
+		this.items = array;
+		this.offset = offset;
+		this.length = length;
+		this.shared = true;
+		this.index = index;
+		hash = 0;
+		polyPower = 0;
+	}
+
+	/**
+	 * Append item to the end of the backing array, growing it if full (or
+	 * copying it if shared)
+	 */
+	private void append(final int item) {
+		if (shared || length == this.items.length) {
+			this.items = Arrays.copyOfRange(this.items, offset, offset + Math.max(4, 2 * length));
+			this.offset = 0;
+			this.shared = false;
+		}
+		this.items[offset + length++] = item;
+		hash = 0;
+		polyPower = 0;
+		index = null;
+	}
+
+	/**
+	 * Build an index of item positions that is used to speed up the subsequence
+	 * matching methods below (worthwhile for long sequences)
+	 */
+	public void buildIndex() {
+		index = new PositionIndex(this.items, offset, length);
+	}
+
+	/** Get the index of item positions (null if not built) */
+	protected PositionIndex getIndex() {
+		return index;
+	}
+
+	/** Check if this sequence has an index of item positions */
+	public boolean isIndexed() {
+		return index != null;
 	}
 
 	/** Code for covering sequences *with gaps* */
@@ -72,12 +164,23 @@ public abstract class AbstractSequence extends AbstractCollection<Integer> imple
 	 * @param sequence
 	 */
 	public boolean contains(final Sequence seq) {
+		if (index != null) {
+			int pos = 0;
+			for (int j = 0; j < seq.length; j++) {
+				pos = index.nextPosition(seq.items[seq.offset + j], pos);
+				if (pos < 0)
+					return false;
+				pos++;
+			}
+			return true;
+		}
 		int pos = 0;
 		boolean containsItem;
-		for (final int item : seq.items) {
+		for (int j = 0; j < seq.length; j++) {
+			final int item = seq.items[seq.offset + j];
 			containsItem = false;
-			for (int i = pos; i < this.items.size(); i++) {
-				if (this.items.get(i) == item) {
+			for (int i = pos; i < this.length; i++) {
+				if (this.items[offset + i] == item) {
 					pos = i + 1;
 					containsItem = true;
 					break;
@@ -99,12 +202,24 @@ public abstract class AbstractSequence extends AbstractCollection<Integer> imple
 	public int repetitions(final Sequence seq) {
 		int count = 0;
 		int pos = 0;
+		if (index != null) {
+			while (true) {
+				for (int j = 0; j < seq.length; j++) {
+					pos = index.nextPosition(seq.items[seq.offset + j], pos);
+					if (pos < 0)
+						return count;
+					pos++;
+				}
+				count++;
+			}
+		}
 		while (true) {
 			boolean containsItem;
-			for (final int item : seq.items) {
+			for (int j = 0; j < seq.length; j++) {
+				final int item = seq.items[seq.offset + j];
 				containsItem = false;
-				for (int i = pos; i < this.items.size(); i++) {
-					if (this.items.get(i) == item) {
+				for (int i = pos; i < this.length; i++) {
+					if (this.items[offset + i] == item) {
 						pos = i + 1;
 						containsItem = true;
 						break;
@@ -117,6 +232,69 @@ public abstract class AbstractSequence extends AbstractCollection<Integer> imple
 		}
 	}
 
+	/**
+	 * Find the next position of given item at or after given position
+	 *
+	 * @return the position or -1 if there is no such occurrence
+	 */
+	public int nextPosition(final int item, final int from) {
+		if (index != null)
+			return index.nextPosition(item, from);
+		for (int i = from; i < this.length; i++) {
+			if (this.items[offset + i] == item)
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Find the end of the earliest occurrence of given sequence in this one
+	 * (allowing gaps)
+	 *
+	 * @return the position after the last matched item or -1 if given
+	 *         sequence is not contained in this one
+	 */
+	public int firstOccurrenceEnd(final Sequence seq) {
+		int pos = 0;
+		for (int j = 0; j < seq.length; j++) {
+			if (index != null) {
+				pos = index.nextPosition(seq.items[seq.offset + j], pos);
+			} else {
+				while (pos < this.length && this.items[offset + pos] != seq.items[seq.offset + j])
+					pos++;
+				if (pos == this.length)
+					pos = -1;
+			}
+			if (pos < 0)
+				return -1;
+			pos++;
+		}
+		return pos;
+	}
+
+	/**
+	 * Find the start of the latest occurrence of given sequence in this one
+	 * (allowing gaps)
+	 *
+	 * @return the position of the first matched item or -1 if given sequence
+	 *         is not contained in this one
+	 */
+	public int lastOccurrenceStart(final Sequence seq) {
+		int pos = this.length;
+		for (int j = seq.length - 1; j >= 0; j--) {
+			if (index != null) {
+				pos = index.previousPosition(seq.items[seq.offset + j], pos);
+			} else {
+				do
+					pos--;
+				while (pos >= 0 && this.items[offset + pos] != seq.items[seq.offset + j]);
+			}
+			if (pos < 0)
+				return -1;
+		}
+		return pos;
+	}
+
 	/** Code for covering sequences *without gaps* */
 	//
 	// /**
@@ -151,10 +329,22 @@ public abstract class AbstractSequence extends AbstractCollection<Integer> imple
 		int pos = 0;
 		boolean containsItem;
 		final BitSet coveredItems = new BitSet(this.size());
-		for (final int item : seq.items) {
+		if (index != null) {
+			for (int j = 0; j < seq.length; j++) {
+				pos = index.nextPosition(seq.items[seq.offset + j], pos, alreadyCoveredItems);
+				if (pos < 0) {
+					coveredItems.clear();
+					return coveredItems;
+				}
+				coveredItems.set(pos++);
+			}
+			return coveredItems;
+		}
+		for (int j = 0; j < seq.length; j++) {
+			final int item = seq.items[seq.offset + j];
 			containsItem = false;
-			for (int i = pos; i < this.items.size(); i++) {
-				if (!alreadyCoveredItems.get(i) && this.items.get(i) == item) {
+			for (int i = pos; i < this.length; i++) {
+				if (!alreadyCoveredItems.get(i) && this.items[offset + i] == item) {
 					coveredItems.set(i);
 					pos = i + 1;
 					containsItem = true;
@@ -311,22 +501,159 @@ public abstract class AbstractSequence extends AbstractCollection<Integer> imple
 	 */
 	@Override
 	public int size() {
-		return this.items.size();
+		return this.length;
 	}
 
 	@Override
 	public boolean isEmpty() {
-		return items.isEmpty();
+		return length == 0;
 	}
 
 	@Override
 	public String toString() {
-		return items.toString();
+		final StringBuilder sb = new StringBuilder("[");
+		for (int i = 0; i < length; i++) {
+			if (i > 0)
+				sb.append(", ");
+			sb.append(items[offset + i]);
+		}
+		return sb.append("]").toString();
+	}
+
+	/** Odd base of the polynomial hash (mod 2^64) used for fingerprints */
+	private static final long BASE = 0x9E3779B97F4A7C15L;
+
+	/**
+	 * 64-bit fingerprint of this sequence, so sets of sequences can be stored
+	 * compactly (collisions are astronomically unlikely but possible)
+	 */
+	public long fingerprint() {
+		computePolyHash();
+		return finalizeFingerprint(polyHash, length);
+	}
+
+	/**
+	 * Fingerprint of the join of given sequences (cf. {@link #fingerprint()}),
+	 * calculated from their cached hashes without building the join
+	 */
+	public static long joinFingerprint(final AbstractSequence seq1, final AbstractSequence seq2) {
+		seq1.computePolyHash();
+		seq2.computePolyHash();
+		return finalizeFingerprint(seq1.polyHash * seq2.polyPower + seq2.polyHash, seq1.length + seq2.length);
+	}
+
+	/** Polynomial hash sum_i mix(items[i]) * BASE^(length-1-i) (mod 2^64) */
+	private void computePolyHash() {
+		if (polyPower != 0)
+			return;
+		long h = 0;
+		long power = 1;
+		for (int i = 0; i < length; i++) {
+			h = h * BASE + mixItem(items[offset + i]);
+			power *= BASE;
+		}
+		polyHash = h;
+		polyPower = power; // odd so never zero
+	}
+
+	private static long mixItem(final int item) {
+		long z = (item & 0xFFFFFFFFL) + 0x632BE59BD9B4E019L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	private static long finalizeFingerprint(final long polyHash, final int length) {
+		long h = polyHash ^ (length * 0xFF51AFD7ED558CCDL);
+		h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+		return h ^ (h >>> 33);
+	}
+
+	/**
+	 * Compare given sequences as their {@link #toString()} representations
+	 * would compare, without building the strings
+	 */
+	public static int compareAsStrings(final AbstractSequence seq1, final AbstractSequence seq2) {
+		return compareAsStrings(seq1, seq2, null);
+	}
+
+	/**
+	 * Compare given sequences as their {@link #toString()} representations
+	 * would compare if their (non-negative) items were replaced by given
+	 * labels (null for the items themselves)
+	 */
+	public static int compareAsStrings(final AbstractSequence seq1, final AbstractSequence seq2, final int[] labels) {
+		for (int i = 0;; i++) {
+			// Compare i-th items followed by their separator (or end bracket)
+			final char sep1 = i + 1 < seq1.length ? ',' : ']';
+			final char sep2 = i + 1 < seq2.length ? ',' : ']';
+			if (i >= seq1.length || i >= seq2.length) {
+				if (seq1.length == seq2.length) // "[]" only
+					return 0;
+				return i >= seq1.length ? ']' - firstChar(label(seq2.items[seq2.offset + i], labels))
+						: firstChar(label(seq1.items[seq1.offset + i], labels)) - ']';
+			}
+			final int item1 = label(seq1.items[seq1.offset + i], labels);
+			final int item2 = label(seq2.items[seq2.offset + i], labels);
+			if (item1 != item2) {
+				final int len1 = decimalLength(item1);
+				final int len2 = decimalLength(item2);
+				for (int pos = 0; pos < Math.min(len1, len2); pos++) {
+					final int cmp = decimalChar(item1, len1, pos) - decimalChar(item2, len2, pos);
+					if (cmp != 0)
+						return cmp;
+				}
+				return (len1 < len2 ? sep1 : decimalChar(item1, len1, len2))
+						- (len2 < len1 ? sep2 : decimalChar(item2, len2, len1));
+			}
+			if (sep1 != sep2)
+				return sep1 - sep2;
+			if (sep1 == ']')
+				return 0;
+		}
+	}
+
+	private static int label(final int item, final int[] labels) {
+		return labels != null && item >= 0 ? labels[item] : item;
+	}
+
+	/** First character of the decimal representation of given int */
+	private static char firstChar(final int item) {
+		return decimalChar(item, decimalLength(item), 0);
+	}
+
+	/** Length of the decimal representation of given int */
+	private static int decimalLength(final int item) {
+		long abs = Math.abs((long) item);
+		int len = item < 0 ? 2 : 1;
+		while (abs >= 10) {
+			abs /= 10;
+			len++;
+		}
+		return len;
 	}
 
+	/** Character at given position of the decimal representation of an int */
+	private static char decimalChar(final int item, final int len, final int pos) {
+		if (item < 0 && pos == 0)
+			return '-';
+		long abs = Math.abs((long) item);
+		for (int i = len - 1; i > pos; i--)
+			abs /= 10;
+		return (char) ('0' + abs % 10);
+	}
+
+	/** Hash code consistent with {@link List#hashCode()}, cached on first use */
 	@Override
 	public int hashCode() {
-		return items.hashCode();
+		int h = hash;
+		if (h == 0) {
+			h = 1;
+			for (int i = 0; i < length; i++)
+				h = 31 * h + items[offset + i];
+			hash = h;
+		}
+		return h;
 	}
 
 	@Override
@@ -336,12 +663,42 @@ public abstract class AbstractSequence extends AbstractCollection<Integer> imple
 		if (!(obj instanceof AbstractSequence))
 			return false;
 		final AbstractSequence other = (AbstractSequence) obj;
-		return items.equals(other.items);
+		if (length != other.length || hashCode() != other.hashCode())
+			return false;
+		for (int i = 0; i < length; i++) {
+			if (items[offset + i] != other.items[other.offset + i])
+				return false;
+		}
+		return true;
+	}
+
+	/** Serialize only the items of this sequence if its array is shared */
+	private void writeObject(final ObjectOutputStream out) throws IOException {
+		final ObjectOutputStream.PutField fields = out.putFields();
+		fields.put("items", shared ? toIntArray() : items);
+		fields.put("offset", shared ? 0 : offset);
+		fields.put("length", length);
+		fields.put("index", index);
+		out.writeFields();
 	}
 
 	@Override
 	public Iterator<Integer> iterator() {
-		return items.iterator();
+		return new Iterator<Integer>() {
+			private int cursor = 0;
+
+			@Override
+			public boolean hasNext() {
+				return cursor < length;
+			}
+
+			@Override
+			public Integer next() {
+				if (cursor >= length)
+					throw new NoSuchElementException();
+				return items[offset + cursor++];
+			}
+		};
 	}
 
 }
@@ -0,0 +1,123 @@
+package sequencemining.sequence;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Index of item positions in a sequence for fast subsequence matching
+ * <p>
+ * Stores the sorted positions of each distinct item contiguously so that the
+ * next occurrence of an item at or after a given position can be found in
+ * O(log n) time.
+ */
+public class PositionIndex implements Serializable {
+	private static final long serialVersionUID = -6307963497226669146L;
+
+	/** Minimum sequence length for which an index is worth building */
+	public static final int MIN_SEQUENCE_LENGTH = 32;
+
+	/** Sorted distinct items */
+	private final int[] keys;
+
+	/** Positions of keys[k] are positions[offsets[k]] .. positions[offsets[k+1]-1] */
+	private final int[] offsets;
+	private final int[] positions;
+
+	/**
+	 * Constructor
+	 *
+	 * @param items
+	 *            array holding the items of the sequence to index
+	 * @param offset
+	 *            position of the first item in the array
+	 * @param length
+	 *            number of valid items
+	 */
+	public PositionIndex(final int[] items, final int offset, final int length) {
+
+		// Sort (item, position) pairs packed into longs
+		final long[] pairs = new long[length];
+		for (int i = 0; i < length; i++)
+			pairs[i] = ((long) items[offset + i] << 32) | i;
+		Arrays.sort(pairs);
+
+		int noKeys = 0;
+		for (int i = 0; i < length; i++) {
+			if (i == 0 || (int) (pairs[i] >> 32) != (int) (pairs[i - 1] >> 32))
+				noKeys++;
+		}
+		keys = new int[noKeys];
+		offsets = new int[noKeys + 1];
+		positions = new int[length];
+		int k = -1;
+		for (int i = 0; i < length; i++) {
+			final int item = (int) (pairs[i] >> 32);
+			if (k < 0 || keys[k] != item) {
+				keys[++k] = item;
+				offsets[k] = i;
+			}
+			positions[i] = (int) pairs[i];
+		}
+		offsets[noKeys] = length;
+	}
+
+	/**
+	 * Find the next position of given item at or after given position
+	 *
+	 * @return the position or -1 if there is no such occurrence
+	 */
+	public int nextPosition(final int item, final int from) {
+		final int k = Arrays.binarySearch(keys, item);
+		if (k < 0)
+			return -1;
+		final int i = firstAtOrAfter(k, from);
+		return i < offsets[k + 1] ? positions[i] : -1;
+	}
+
+	/**
+	 * Find the previous position of given item strictly before given position
+	 *
+	 * @return the position or -1 if there is no such occurrence
+	 */
+	public int previousPosition(final int item, final int before) {
+		final int k = Arrays.binarySearch(keys, item);
+		if (k < 0)
+			return -1;
+		final int i = firstAtOrAfter(k, before) - 1;
+		return i >= offsets[k] ? positions[i] : -1;
+	}
+
+	/**
+	 * Find the next position of given item at or after given position that is
+	 * not excluded
+	 *
+	 * @return the position or -1 if there is no such occurrence
+	 */
+	public int nextPosition(final int item, final int from, final BitSet excluded) {
+		final int k = Arrays.binarySearch(keys, item);
+		if (k < 0)
+			return -1;
+		final int end = offsets[k + 1];
+		for (int i = firstAtOrAfter(k, from); i < end; i++) {
+			if (!excluded.get(positions[i]))
+				return positions[i];
+		}
+		return -1;
+	}
+
+	/** Index into positions of the first occurrence of keys[k] >= from */
+	private int firstAtOrAfter(final int k, final int from) {
+		int lo = offsets[k];
+		int hi = offsets[k + 1];
+		while (lo < hi) {
+			final int mid = (lo + hi) >>> 1;
+			if (positions[mid] < from)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+}
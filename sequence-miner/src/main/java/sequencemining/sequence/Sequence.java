@@ -1,10 +1,10 @@
 package sequencemining.sequence;
 
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
+import com.google.common.primitives.Ints;
+
 public class Sequence extends AbstractSequence implements Serializable {
 	private static final long serialVersionUID = -2766830126344921771L;
 
@@ -12,17 +12,21 @@ public class Sequence extends AbstractSequence implements Serializable {
 	 * Constructor
 	 */
 	public Sequence() {
-		this.items = new ArrayList<>();
+		this.items = new int[4];
 	}
 
 	/**
 	 * Shallow Copy Constructor
+	 * <p>
+	 * N.B. the item array is shared so neither sequence should be added to
 	 *
 	 * @param seq
 	 *            sequence to shallow copy
 	 */
 	public Sequence(final Sequence seq) {
 		this.items = seq.items;
+		this.offset = seq.offset;
+		this.length = seq.length;
 	}
 
 	/**
@@ -32,7 +36,8 @@ public class Sequence extends AbstractSequence implements Serializable {
 	 *            a list of items that should be added to the new sequence
 	 */
 	public Sequence(final List<Integer> items) {
-		this.items = new ArrayList<>(items);
+		this.items = Ints.toArray(items);
+		this.length = this.items.length;
 	}
 
 	/**
@@ -42,7 +47,21 @@ public class Sequence extends AbstractSequence implements Serializable {
 	 *            an array of items that should be added to the new sequence
 	 */
 	public Sequence(final Integer... items) {
-		this.items = new ArrayList<>(Arrays.asList(items));
+		this.items = new int[items.length];
+		for (final Integer item : items)
+			this.items[this.length++] = item;
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param items
+	 *            a primitive array of items that should be added to the new
+	 *            sequence (copied)
+	 */
+	public Sequence(final int[] items) {
+		this.items = items.clone();
+		this.length = items.length;
 	}
 
 	/**
@@ -52,8 +71,10 @@ public class Sequence extends AbstractSequence implements Serializable {
 	 *            two sequences that should be joined
 	 */
 	public Sequence(final Sequence seq1, final Sequence seq2) {
-		this.items = new ArrayList<>(seq1.items);
-		this.items.addAll(seq2.items);
+		this.length = seq1.length + seq2.length;
+		this.items = new int[this.length];
+		System.arraycopy(seq1.items, seq1.offset, this.items, 0, seq1.length);
+		System.arraycopy(seq2.items, seq2.offset, this.items, seq1.length, seq2.length);
 	}
 
 }
@@ -0,0 +1,76 @@
+package sequencemining.sequence;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Concurrent dictionary interning sequences to dense int IDs
+ * <p>
+ * Each distinct sequence is assigned an ID exactly once (unless released),
+ * IDs are allocated consecutively from zero and are never reused.
+ */
+public class SequenceDictionary implements Serializable {
+	private static final long serialVersionUID = -2481535214718270416L;
+
+	/** Sequence to ID map */
+	private final ConcurrentHashMap<Sequence, Integer> ids = new ConcurrentHashMap<>();
+
+	/** ID to canonical sequence map */
+	private volatile Sequence[] sequences = new Sequence[64];
+	private int noSequences = 0;
+
+	/**
+	 * Get the ID of given sequence, interning it if it has not been seen
+	 *
+	 * @return the dense ID of the sequence
+	 */
+	public int getId(final Sequence seq) {
+		final Integer id = ids.get(seq);
+		if (id != null)
+			return id;
+		return ids.computeIfAbsent(seq, this::register);
+	}
+
+	/**
+	 * Get the ID of given sequence without interning it
+	 *
+	 * @return the dense ID of the sequence or -1 if it has not been seen
+	 */
+	public int getIdIfPresent(final Sequence seq) {
+		final Integer id = ids.get(seq);
+		return id == null ? -1 : id;
+	}
+
+	/** Get the canonical sequence with given ID (null if released) */
+	public Sequence getSequence(final int id) {
+		return sequences[id];
+	}
+
+	/**
+	 * Release the sequence with given ID so it can be garbage collected (its
+	 * ID is never reused, interning it again assigns a new ID)
+	 */
+	public synchronized void release(final int id) {
+		final Sequence seq = sequences[id];
+		if (seq != null) {
+			ids.remove(seq);
+			sequences[id] = null;
+		}
+	}
+
+	/** Get the number of interned sequences (i.e. the next free ID) */
+	public synchronized int size() {
+		return noSequences;
+	}
+
+	/** Assign the next free ID to given sequence */
+	private synchronized Integer register(final Sequence seq) {
+		if (noSequences == sequences.length)
+			sequences = Arrays.copyOf(sequences, 2 * noSequences);
+		final int id = noSequences++;
+		sequences[id] = seq;
+		return id;
+	}
+
+}
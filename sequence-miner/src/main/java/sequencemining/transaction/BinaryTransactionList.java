@@ -0,0 +1,385 @@
+package sequencemining.transaction;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+
+import sequencemining.sequence.PositionIndex;
+import sequencemining.sequence.Sequence;
+
+/**
+ * Transaction list read from a binary dataset file
+ * <p>
+ * The (little-endian) binary format consists of a header followed by the
+ * flat array of all items, the length of each transaction, the sorted
+ * distinct items (item dictionary) and, for each distinct item, the number of
+ * transactions containing it once, twice, etc. (singleton occurrence
+ * histogram), so neither the transactions nor the initial probabilities have
+ * to be parsed from text. The file is memory-mapped in windows and its items
+ * are bulk-copied straight into the item arenas of the list.
+ */
+public class BinaryTransactionList extends TransactionList {
+
+	private static final int MAGIC = 0x424D5349; // "ISMB"
+	private static final int VERSION = 1;
+	private static final int HEADER_BYTES = 32;
+
+	/** Max. bytes mapped at a time (mappings are limited to 2GB) */
+	private static final int WINDOW_BYTES = 1 << 30;
+
+	/**
+	 * Constructor
+	 *
+	 * @param file
+	 *            binary dataset file (see {@link #write})
+	 */
+	public BinaryTransactionList(final File file) throws IOException {
+		this(file, false);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param file
+	 *            binary dataset file (see {@link #write})
+	 * @param remapItems
+	 *            remap items to dense items in decreasing order of frequency
+	 *            (using the map for output), see {@link ItemMap}
+	 */
+	public BinaryTransactionList(final File file, final boolean remapItems) throws IOException {
+		this(new Reader(file), remapItems);
+	}
+
+	private BinaryTransactionList(final Reader reader, final boolean remapItems) {
+		this(reader, remapItems ? ItemMap.rankedBy(reader.readInitialProbabilities()) : null);
+	}
+
+	private BinaryTransactionList(final Reader reader, final ItemMap itemMap) {
+		super(reader.blocks(itemMap), itemMap != null ? itemMap.toDense(reader.readInitialProbabilities())
+				: reader.readInitialProbabilities());
+		setItemMap(itemMap);
+		reader.close();
+	}
+
+	/** Check if given file is a binary dataset file */
+	public static boolean isBinary(final File file) throws IOException {
+		try (final RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			return raf.length() >= HEADER_BYTES && Integer.reverseBytes(raf.readInt()) == MAGIC;
+		}
+	}
+
+	/**
+	 * Iterate over the transactions in given binary dataset file without
+	 * keeping them in memory (the file is closed once they are exhausted)
+	 */
+	public static Iterator<Transaction> iterator(final File file) throws IOException {
+		final Reader reader = new Reader(file);
+		final Iterator<Transaction> transactions = reader.transactions();
+		return new Iterator<Transaction>() {
+			@Override
+			public boolean hasNext() {
+				if (transactions.hasNext())
+					return true;
+				reader.close();
+				return false;
+			}
+
+			@Override
+			public Transaction next() {
+				return transactions.next();
+			}
+		};
+	}
+
+	/** Read the initial probabilities of the singletons in given binary dataset file */
+	public static Table<Sequence, Integer, Double> readInitialProbabilities(final File file) throws IOException {
+		final Reader reader = new Reader(file);
+		try {
+			return reader.readInitialProbabilities();
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Write given transactions to a binary dataset file
+	 *
+	 * @return the number of transactions written
+	 */
+	public static int write(final Iterator<Transaction> transactions, final File file) throws IOException {
+		try (final RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(0);
+			final FileChannel channel = raf.getChannel();
+			final Writer writer = new Writer(channel, HEADER_BYTES);
+
+			// Items (counting singleton occurrences)
+			int[] lengths = new int[1024];
+			int noTransactions = 0;
+			long noItems = 0;
+			final Map<Integer, int[]> histograms = new HashMap<>();
+			while (transactions.hasNext()) {
+				final Transaction transaction = transactions.next();
+				final int[] items = transaction.toIntArray();
+				for (final int item : items)
+					writer.putInt(item);
+				if (noTransactions == lengths.length)
+					lengths = Arrays.copyOf(lengths, 2 * noTransactions);
+				lengths[noTransactions++] = items.length;
+				noItems += items.length;
+				Arrays.sort(items);
+				for (int i = 0, j; i < items.length; i = j) {
+					for (j = i + 1; j < items.length && items[j] == items[i];)
+						j++;
+					if (items[i] < 0) // not a valid singleton
+						continue;
+					int[] histogram = histograms.get(items[i]);
+					if (histogram == null || histogram.length <= j - i) {
+						histogram = histogram == null ? new int[j - i + 1] : Arrays.copyOf(histogram, j - i + 1);
+						histograms.put(items[i], histogram);
+					}
+					histogram[j - i]++;
+				}
+			}
+
+			// Transaction lengths, item dictionary and histograms
+			for (int i = 0; i < noTransactions; i++)
+				writer.putInt(lengths[i]);
+			final int[] dictionary = new int[histograms.size()];
+			int d = 0;
+			for (final int item : histograms.keySet())
+				dictionary[d++] = item;
+			Arrays.sort(dictionary);
+			for (final int item : dictionary)
+				writer.putInt(item);
+			int noHistogramEntries = 0;
+			for (final int item : dictionary) {
+				writer.putInt(histograms.get(item).length - 1);
+				noHistogramEntries += histograms.get(item).length - 1;
+			}
+			for (final int item : dictionary) {
+				final int[] histogram = histograms.get(item);
+				for (int occur = 1; occur < histogram.length; occur++)
+					writer.putInt(histogram[occur]);
+			}
+			writer.flush();
+
+			// Header
+			final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putInt(VERSION).putInt(noTransactions).putInt(dictionary.length).putLong(noItems)
+					.putInt(noHistogramEntries).putInt(0).flip();
+			channel.write(header, 0);
+			return noTransactions;
+		}
+	}
+
+	/** Buffered writer of little-endian ints to a channel */
+	private static class Writer {
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocate(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+		private long position;
+
+		private Writer(final FileChannel channel, final long position) {
+			this.channel = channel;
+			this.position = position;
+		}
+
+		private void putInt(final int value) throws IOException {
+			if (buffer.remaining() < Integer.BYTES)
+				flush();
+			buffer.putInt(value);
+		}
+
+		private void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining())
+				position += channel.write(buffer, position);
+			buffer.clear();
+		}
+	}
+
+	/** Reader of the sections of a memory-mapped binary dataset file */
+	private static class Reader {
+		private final RandomAccessFile raf;
+		private final FileChannel channel;
+		private final int noTransactions;
+		private final int noDistinctItems;
+		private final long noItems;
+		private Table<Sequence, Integer, Double> initialProbabilities;
+
+		private Reader(final File file) throws IOException {
+			raf = new RandomAccessFile(file, "r");
+			channel = raf.getChannel();
+			final ByteBuffer header = channel.map(MapMode.READ_ONLY, 0, HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+				close();
+				throw new IOException("Not a binary dataset file (version " + VERSION + "): " + file);
+			}
+			noTransactions = header.getInt();
+			noDistinctItems = header.getInt();
+			noItems = header.getLong();
+		}
+
+		private long itemsPosition() {
+			return HEADER_BYTES;
+		}
+
+		private long lengthsPosition() {
+			return itemsPosition() + noItems * Integer.BYTES;
+		}
+
+		private long dictionaryPosition() {
+			return lengthsPosition() + (long) noTransactions * Integer.BYTES;
+		}
+
+		/**
+		 * Read the transactions into blocks (see {@link TransactionList}),
+		 * copying the mapped items of each block into its arena at once and
+		 * remapping them there if an item map is given
+		 */
+		private TransactionBlock[] blocks(final ItemMap itemMap) {
+			final Section items = new Section(itemsPosition(), noItems);
+			final Section lengths = new Section(lengthsPosition(), noTransactions);
+			final TransactionBlock[] blocks = new TransactionBlock[(noTransactions + BLOCK_SIZE - 1) / BLOCK_SIZE];
+			for (int k = 0; k < blocks.length; k++) {
+				final int[] offsets = new int[Math.min(BLOCK_SIZE, noTransactions - k * BLOCK_SIZE) + 1];
+				long noBlockItems = 0;
+				for (int i = 1; i < offsets.length; i++) {
+					noBlockItems += lengths.getInt();
+					if (noBlockItems > Integer.MAX_VALUE - 8)
+						throw new IllegalStateException("Too many items for one block: " + noBlockItems);
+					offsets[i] = (int) noBlockItems;
+				}
+				final int[] arena = new int[offsets[offsets.length - 1]];
+				items.get(arena);
+				if (itemMap != null) {
+					for (int i = 0; i < arena.length; i++)
+						arena[i] = itemMap.toDense(arena[i]);
+				}
+				blocks[k] = new TransactionBlock(arena, offsets);
+			}
+			return blocks;
+		}
+
+		/** Iterate over the transactions, building them from mapped items */
+		private Iterator<Transaction> transactions() {
+			final Section items = new Section(itemsPosition(), noItems);
+			final Section lengths = new Section(lengthsPosition(), noTransactions);
+			return new Iterator<Transaction>() {
+				private int i = 0;
+
+				@Override
+				public boolean hasNext() {
+					return i < noTransactions;
+				}
+
+				@Override
+				public Transaction next() {
+					if (!hasNext())
+						throw new NoSuchElementException();
+					i++;
+					final int[] transactionItems = new int[lengths.getInt()];
+					items.get(transactionItems);
+					final Transaction transaction = new Transaction(transactionItems);
+					if (transaction.size() >= PositionIndex.MIN_SEQUENCE_LENGTH)
+						transaction.buildIndex();
+					return transaction;
+				}
+			};
+		}
+
+		/**
+		 * Read the initial singleton probabilities, i.e. the fraction of
+		 * transactions containing each item a given number of times (only
+		 * read once)
+		 */
+		private Table<Sequence, Integer, Double> readInitialProbabilities() {
+			if (initialProbabilities != null)
+				return initialProbabilities;
+			final Section dictionary = new Section(dictionaryPosition(), noDistinctItems);
+			final Section histogramLengths = new Section(dictionaryPosition() + (long) noDistinctItems * Integer.BYTES,
+					noDistinctItems);
+			final int[] maxOccurs = new int[noDistinctItems];
+			histogramLengths.get(maxOccurs);
+			final Section histograms = new Section(dictionaryPosition() + 2L * noDistinctItems * Integer.BYTES,
+					Arrays.stream(maxOccurs).asLongStream().sum());
+
+			final double noTrans = noTransactions;
+			final Table<Sequence, Integer, Double> probabilities = HashBasedTable.create();
+			for (int d = 0; d < noDistinctItems; d++) {
+				final Sequence seq = new Sequence(dictionary.getInt());
+				int noContaining = 0;
+				for (int occur = 1; occur <= maxOccurs[d]; occur++) {
+					final int count = histograms.getInt();
+					probabilities.put(seq, occur, count / noTrans);
+					noContaining += count;
+				}
+				probabilities.put(seq, 0, (noTrans - noContaining) / noTrans);
+			}
+			initialProbabilities = probabilities;
+			return probabilities;
+		}
+
+		private void close() {
+			try {
+				raf.close();
+			} catch (final IOException e) {
+				// ignore
+			}
+		}
+
+		/** Sequential reader of ints in a file region, mapped in windows */
+		private class Section {
+			private long position;
+			private long remaining;
+			private IntBuffer window = IntBuffer.allocate(0);
+
+			private Section(final long position, final long count) {
+				this.position = position;
+				this.remaining = count;
+			}
+
+			private void map() {
+				final long count = Math.min(remaining, WINDOW_BYTES / Integer.BYTES);
+				try {
+					window = channel.map(MapMode.READ_ONLY, position, count * Integer.BYTES)
+							.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+				} catch (final IOException e) {
+					throw new IllegalStateException("Failed to map binary dataset file", e);
+				}
+				position += count * Integer.BYTES;
+				remaining -= count;
+			}
+
+			private int getInt() {
+				if (!window.hasRemaining())
+					map();
+				return window.get();
+			}
+
+			private void get(final int[] dst) {
+				int offset = 0;
+				while (offset < dst.length) {
+					if (!window.hasRemaining())
+						map();
+					final int n = Math.min(dst.length - offset, window.remaining());
+					window.get(dst, offset, n);
+					offset += n;
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,192 @@
+package sequencemining.transaction;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import com.google.common.collect.Table;
+
+import sequencemining.sequence.Sequence;
+import sequencemining.util.IntIntHashMap;
+
+/**
+ * Transaction database that keeps its segments compressed in memory
+ * <p>
+ * Items are replaced by their rank in decreasing order of frequency and
+ * stored as varints, so frequent items take a single byte however wide the
+ * item alphabet. The caches of the transactions are stored deflated. Only a
+ * bounded number of segments are decoded at any time (see
+ * {@link SegmentedTransactionDatabase}); a decoded segment is a
+ * {@link TransactionBlock} holding its items in one arena.
+ */
+public class CompressedTransactionDatabase extends SegmentedTransactionDatabase {
+
+	/**
+	 * Constructor
+	 *
+	 * @param transactions
+	 *            iterator over the transactions to store (consumed)
+	 * @param rankedItems
+	 *            items in decreasing order of frequency (see
+	 *            {@link #rankItems}), any other items are stored unranked
+	 * @param segmentSize
+	 *            no. of transactions per segment
+	 * @param maxResidentSegments
+	 *            max. no. of segments to keep decoded (should exceed the no.
+	 *            of threads)
+	 */
+	public CompressedTransactionDatabase(final Iterator<Transaction> transactions, final int[] rankedItems,
+			final int segmentSize, final int maxResidentSegments) throws IOException {
+		super(transactions, segmentSize, maxResidentSegments, new CompressedStore(rankedItems));
+	}
+
+	/** Get the total size of the compressed segments in bytes */
+	public long getCompressedBytes() {
+		return ((CompressedStore) getStore()).getCompressedBytes();
+	}
+
+	/**
+	 * Rank the items of given initial singleton probabilities in decreasing
+	 * order of their probability of occurring
+	 */
+	public static int[] rankItems(final Table<Sequence, Integer, Double> initProbs) {
+		return ItemMap.rankedBy(initProbs).getLabels();
+	}
+
+	/** In-memory store of compressed segments */
+	private static class CompressedStore implements Store {
+		private final int[] rankedItems;
+		private final IntIntHashMap ranks = new IntIntHashMap(-1);
+
+		/** Whether each item is its own rank (e.g. for remapped items), so no lookup is needed */
+		private final boolean identity;
+
+		private final List<byte[]> segments = new ArrayList<>();
+		private long compressedBytes = 0;
+
+		private CompressedStore(final int[] rankedItems) {
+			this.rankedItems = rankedItems;
+			boolean isIdentity = true;
+			for (int rank = 0; rank < rankedItems.length && isIdentity; rank++)
+				isIdentity = rankedItems[rank] == rank;
+			this.identity = isIdentity;
+			if (!identity) {
+				for (int rank = 0; rank < rankedItems.length; rank++)
+					ranks.put(rankedItems[rank], rank);
+			}
+		}
+
+		private synchronized long getCompressedBytes() {
+			return compressedBytes;
+		}
+
+		/** Code of given item: its rank or, if unranked, after all ranks */
+		private int encode(final int item) {
+			if (identity && item >= 0 && item < rankedItems.length)
+				return item;
+			final int rank = ranks.get(item);
+			if (rank >= 0)
+				return rank;
+			return rankedItems.length + ((item << 1) ^ (item >> 31)); // zigzag
+		}
+
+		private int decode(final int code) {
+			if (code >= 0 && code < rankedItems.length)
+				return rankedItems[code];
+			final int zigzag = code - rankedItems.length;
+			return (zigzag >>> 1) ^ -(zigzag & 1);
+		}
+
+		@Override
+		public void write(final int k, final TransactionBlock block) throws IOException {
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+			// Items as varint codes
+			final int[] items = block.getItems();
+			writeVarint(bytes, block.size());
+			for (int i = 0; i < block.size(); i++) {
+				writeVarint(bytes, block.getLength(i));
+				for (int j = block.getOffset(i); j < block.getOffset(i + 1); j++)
+					writeVarint(bytes, encode(items[j]));
+			}
+
+			// Caches of the transactions deflated
+			try (final ObjectOutputStream out = new ObjectOutputStream(new DeflaterOutputStream(bytes))) {
+				out.writeObject(block.withoutItems());
+			}
+
+			final byte[] segment = bytes.toByteArray();
+			synchronized (this) {
+				while (segments.size() <= k)
+					segments.add(null);
+				if (segments.get(k) != null)
+					compressedBytes -= segments.get(k).length;
+				segments.set(k, segment);
+				compressedBytes += segment.length;
+			}
+		}
+
+		@Override
+		public TransactionBlock read(final int k) throws IOException, ClassNotFoundException {
+			final byte[] segment;
+			synchronized (this) {
+				segment = segments.get(k);
+			}
+
+			// Decode items into one arena
+			final int[] pos = new int[1];
+			final int noTransactions = readVarint(segment, pos);
+			final int[] offsets = new int[noTransactions + 1];
+			int[] arena = new int[segment.length]; // at least a byte per item
+			for (int i = 0; i < noTransactions; i++) {
+				final int length = readVarint(segment, pos);
+				offsets[i + 1] = offsets[i] + length;
+				for (int j = offsets[i]; j < offsets[i + 1]; j++)
+					arena[j] = decode(readVarint(segment, pos));
+			}
+			arena = Arrays.copyOf(arena, offsets[noTransactions]);
+
+			// Restore the caches of the transactions
+			final TransactionBlock block;
+			try (final ObjectInputStream in = new ObjectInputStream(
+					new InflaterInputStream(new ByteArrayInputStream(segment, pos[0], segment.length - pos[0])))) {
+				block = (TransactionBlock) in.readObject();
+			}
+			block.setItems(arena, offsets);
+			return block;
+		}
+
+		@Override
+		public synchronized void close() {
+			segments.clear();
+			compressedBytes = 0;
+		}
+
+		private static void writeVarint(final ByteArrayOutputStream bytes, int value) {
+			while ((value & ~0x7F) != 0) {
+				bytes.write((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			bytes.write(value);
+		}
+
+		private static int readVarint(final byte[] bytes, final int[] pos) {
+			int value = 0;
+			for (int shift = 0;; shift += 7) {
+				final byte b = bytes[pos[0]++];
+				value |= (b & 0x7F) << shift;
+				if (b >= 0)
+					return value;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,96 @@
+package sequencemining.transaction;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
+
+import sequencemining.sequence.Sequence;
+import sequencemining.sequence.SequenceDictionary;
+
+/**
+ * Covering of a transaction, i.e. a multiset of sequence IDs stored as
+ * parallel primitive (ID, count) arrays sorted by ID
+ */
+public class Covering implements Serializable {
+	private static final long serialVersionUID = -3357294512806385011L;
+
+	private int[] ids;
+	private int[] counts;
+	private int size = 0;
+
+	/**
+	 * Constructor
+	 */
+	public Covering() {
+		this.ids = new int[4];
+		this.counts = new int[4];
+	}
+
+	/** Add one occurrence of sequence with given ID to this covering */
+	public void add(final int id) {
+		final int i = Arrays.binarySearch(ids, 0, size, id);
+		if (i >= 0) {
+			counts[i]++;
+			return;
+		}
+		final int insertionPoint = -(i + 1);
+		if (size == ids.length) {
+			ids = Arrays.copyOf(ids, 2 * size);
+			counts = Arrays.copyOf(counts, 2 * size);
+		}
+		System.arraycopy(ids, insertionPoint, ids, insertionPoint + 1, size - insertionPoint);
+		System.arraycopy(counts, insertionPoint, counts, insertionPoint + 1, size - insertionPoint);
+		ids[insertionPoint] = id;
+		counts[insertionPoint] = 1;
+		size++;
+	}
+
+	/** Number of occurrences of sequence with given ID in this covering */
+	public int count(final int id) {
+		final int i = Arrays.binarySearch(ids, 0, size, id);
+		return i >= 0 ? counts[i] : 0;
+	}
+
+	public boolean contains(final int id) {
+		return Arrays.binarySearch(ids, 0, size, id) >= 0;
+	}
+
+	/** Number of distinct sequences in this covering */
+	public int size() {
+		return size;
+	}
+
+	/** ID of the i-th distinct sequence in this covering */
+	public int getId(final int i) {
+		return ids[i];
+	}
+
+	/** Count of the i-th distinct sequence in this covering */
+	public int getCount(final int i) {
+		return counts[i];
+	}
+
+	/** Convert this covering to a multiset of sequences */
+	public Multiset<Sequence> toMultiset(final SequenceDictionary dictionary) {
+		final Multiset<Sequence> covering = HashMultiset.create();
+		for (int i = 0; i < size; i++)
+			covering.add(dictionary.getSequence(ids[i]), counts[i]);
+		return covering;
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder("[");
+		for (int i = 0; i < size; i++) {
+			if (i > 0)
+				sb.append(", ");
+			sb.append(ids[i]);
+			if (counts[i] > 1)
+				sb.append(" x ").append(counts[i]);
+		}
+		return sb.append("]").toString();
+	}
+
+}
@@ -0,0 +1,306 @@
+package sequencemining.transaction;
+
+import java.util.Arrays;
+
+import sequencemining.sequence.Sequence;
+import sequencemining.sequence.SequenceDictionary;
+import sequencemining.util.IntIntHashMap;
+
+/**
+ * Accumulator for the number of transactions whose covering contains each
+ * sequence (by ID) a given number of times
+ * <p>
+ * Intended to be used as a per-thread mutable container in a parallel
+ * stream collect, with partial results merged at the end. Only the counted
+ * sequences are stored, so accumulating the coverings of a few transactions
+ * is cheap however many sequence IDs have been assigned.
+ * <p>
+ * Optionally also counts the transactions whose cache contains a sequence
+ * that their covering does not use (occurrence zero) along with the total
+ * probability-free part of their costs, so the total cost of the counted
+ * coverings under any probabilities follows from the counts alone (see
+ * {@link Transaction#addCachedCostCounts}).
+ */
+public class CoveringCounts {
+
+	/** Slots of the counted sequence IDs */
+	private final IntIntHashMap slots = new IntIntHashMap(-1);
+	private int[] ids = new int[16];
+	private int size = 0;
+	private int maxId = 0;
+
+	/** counts[slot][occur] is the no. of coverings containing ids[slot] occur times */
+	private int[][] counts = new int[16][];
+
+	/** Total probability-free part of the cost of the counted coverings */
+	private double lengthCost = 0;
+
+	/** Probabilities fitted to the counts and their costs (see #fit) */
+	private double fittedNoTransactions = Double.NaN;
+	private double[][] fittedRows;
+	private double[] fittedRowCosts;
+	private double fittedCost;
+
+	/** Add the counts of given covering */
+	public void add(final Covering covering) {
+		for (int i = 0; i < covering.size(); i++)
+			add(covering.getId(i), covering.getCount(i), 1);
+	}
+
+	/** Merge the counts of given accumulator into this one */
+	public void addAll(final CoveringCounts other) {
+		for (int slot = 0; slot < other.size; slot++) {
+			final int[] row = other.counts[slot];
+			for (int occur = 0; occur < row.length; occur++) {
+				if (row[occur] != 0)
+					add(other.ids[slot], occur, row[occur]);
+			}
+		}
+		lengthCost += other.lengthCost;
+	}
+
+	void add(final int id, final int occur, final int count) {
+		int slot = slots.get(id);
+		if (slot < 0) {
+			if (size == ids.length) {
+				ids = Arrays.copyOf(ids, 2 * size);
+				counts = Arrays.copyOf(counts, 2 * size);
+			}
+			slot = size++;
+			slots.put(id, slot);
+			ids[slot] = id;
+			counts[slot] = new int[occur + 1];
+			maxId = Math.max(maxId, id + 1);
+		}
+		int[] row = counts[slot];
+		if (occur >= row.length)
+			row = counts[slot] = Arrays.copyOf(row, occur + 1);
+		row[occur] += count;
+		fittedRows = null;
+	}
+
+	void addLengthCost(final double cost) {
+		lengthCost += cost;
+	}
+
+	/**
+	 * Get the total cost of the counted coverings under given probabilities
+	 * (sequences without probabilities are ignored), cf.
+	 * {@link Transaction#getCost}
+	 */
+	public double getCost(final SequenceProbabilities sequences) {
+		double totalCost = lengthCost;
+		for (int slot = 0; slot < size; slot++)
+			totalCost += getRowCost(counts[slot], sequences.getRow(ids[slot]));
+		return totalCost;
+	}
+
+	/** Get the cost of given counts under given probabilities (may be null) */
+	private static double getRowCost(final int[] row, final double[] newRow) {
+		if (newRow == null)
+			return 0;
+		double cost = 0;
+		for (int occur = 0; occur < row.length; occur++) {
+			if (row[occur] != 0)
+				cost += row[occur] * -Math.log(newRow[occur]);
+		}
+		return cost;
+	}
+
+	/** Get the IDs of the counted sequences in ascending order */
+	public int[] getIds() {
+		final int[] sorted = Arrays.copyOf(ids, size);
+		Arrays.sort(sorted);
+		return sorted;
+	}
+
+	/**
+	 * Get the counts for the sequence with given ID, indexed by occurrence
+	 * (null if it is in no covering)
+	 * <p>
+	 * N.B. if zero occurrences are counted the counts may all be zero
+	 */
+	public int[] getCounts(final int id) {
+		final int slot = slots.get(id);
+		return slot < 0 ? null : counts[slot];
+	}
+
+	/**
+	 * M-step: get the probabilities of a sequence with given counts in the
+	 * coverings of given no. of transactions, i.e. row[occur] = p(z_S =
+	 * occur) (null if the sequence is in no covering)
+	 */
+	public static double[] getProbabilities(final int[] counts, final double noTransactions) {
+		int maxOccur = counts.length - 1;
+		while (maxOccur > 0 && counts[maxOccur] == 0)
+			maxOccur--;
+		if (maxOccur == 0) // in no covering
+			return null;
+		final double[] row = new double[maxOccur + 1];
+		double rowSum = 0;
+		for (int occur = 1; occur <= maxOccur; occur++) {
+			row[occur] = counts[occur] / noTransactions;
+			rowSum += row[occur];
+		} // Add probabilities for zero occurrences
+		row[0] = 1 - rowSum;
+		return row;
+	}
+
+	/**
+	 * Fit probabilities to the counted coverings of given no. of transactions
+	 * and get their costs under them (only done once unless counts are added)
+	 */
+	private synchronized void fit(final double noTransactions) {
+		if (fittedRows != null && fittedNoTransactions == noTransactions)
+			return;
+		final double[][] rows = new double[size][];
+		fittedRowCosts = new double[size];
+		fittedCost = 0;
+		for (int slot = 0; slot < size; slot++) {
+			rows[slot] = getProbabilities(counts[slot], noTransactions);
+			fittedRowCosts[slot] = getRowCost(counts[slot], rows[slot]);
+			fittedCost += fittedRowCosts[slot];
+		}
+		fittedNoTransactions = noTransactions;
+		fittedRows = rows;
+	}
+
+	/**
+	 * Refit the probabilities of the counted coverings of given no. of
+	 * transactions with some coverings replaced, only refitting the sequences
+	 * whose counts change
+	 *
+	 * @param removed
+	 *            counts of the replaced coverings (a subset of these counts)
+	 * @param added
+	 *            counts of the replacement coverings
+	 * @param dictionary
+	 *            dictionary the sequence IDs refer to
+	 */
+	public Refit refit(final CoveringCounts removed, final CoveringCounts added, final SequenceDictionary dictionary,
+			final double noTransactions) {
+		fit(noTransactions);
+		return new Refit(this, removed, added, dictionary, noTransactions);
+	}
+
+	/**
+	 * Probabilities fitted to a set of counted coverings with some of them
+	 * replaced (see {@link CoveringCounts#refit})
+	 */
+	public static class Refit implements SequenceProbabilities {
+
+		private final SequenceDictionary dictionary;
+
+		/** Fitted rows of the base counts */
+		private final IntIntHashMap baseSlots;
+		private final double[][] baseRows;
+		private final int maxId;
+
+		/** Refitted rows of the sequences whose counts changed */
+		private final IntIntHashMap touched = new IntIntHashMap(-1);
+		private final double[][] touchedRows;
+
+		/** Cost of the counted coverings that were not replaced */
+		private final double otherCost;
+
+		private Refit(final CoveringCounts base, final CoveringCounts removed, final CoveringCounts added,
+				final SequenceDictionary dictionary, final double noTransactions) {
+			this.dictionary = dictionary;
+			this.baseSlots = base.slots;
+			this.baseRows = base.fittedRows;
+
+			// Counts of the touched sequences in the coverings not replaced
+			final CoveringCounts other = new CoveringCounts();
+			for (int slot = 0; slot < removed.size; slot++)
+				addBaseCounts(other, base, removed.ids[slot]);
+			for (int slot = 0; slot < added.size; slot++)
+				addBaseCounts(other, base, added.ids[slot]);
+			for (int slot = 0; slot < removed.size; slot++) {
+				final int[] row = removed.counts[slot];
+				for (int occur = 0; occur < row.length; occur++)
+					other.add(removed.ids[slot], occur, -row[occur]);
+			}
+			maxId = Math.max(base.maxId, other.maxId);
+
+			// M-step on the touched sequences only
+			touchedRows = new double[other.size][];
+			for (int slot = 0; slot < other.size; slot++) {
+				final int id = other.ids[slot];
+				touched.put(id, slot);
+				final int[] addedRow = added.getCounts(id);
+				final int[] row = Arrays.copyOf(other.counts[slot],
+						Math.max(other.counts[slot].length, addedRow == null ? 0 : addedRow.length));
+				for (int occur = 0; addedRow != null && occur < addedRow.length; occur++)
+					row[occur] += addedRow[occur];
+				touchedRows[slot] = getProbabilities(row, noTransactions);
+			}
+
+			// Cost of the coverings not replaced, i.e. the fitted cost of the
+			// untouched sequences plus that of the touched ones
+			double cost = base.lengthCost - removed.lengthCost;
+			if (Double.isFinite(base.fittedCost)) {
+				cost += base.fittedCost;
+				for (int slot = 0; slot < other.size; slot++) {
+					final int baseSlot = base.slots.get(other.ids[slot]);
+					if (baseSlot >= 0)
+						cost -= base.fittedRowCosts[baseSlot];
+				}
+			} else { // infinite costs can't be subtracted
+				for (int slot = 0; slot < base.size; slot++) {
+					if (!touched.containsKey(base.ids[slot]))
+						cost += base.fittedRowCosts[slot];
+				}
+			}
+			for (int slot = 0; slot < other.size; slot++)
+				cost += getRowCost(other.counts[slot], touchedRows[slot]);
+			otherCost = cost;
+		}
+
+		/** Add the base counts of given sequence ID to given counts (once) */
+		private static void addBaseCounts(final CoveringCounts other, final CoveringCounts base, final int id) {
+			if (other.slots.containsKey(id))
+				return;
+			final int[] row = base.getCounts(id);
+			if (row == null)
+				other.add(id, 0, 0);
+			else
+				for (int occur = 0; occur < row.length; occur++)
+					other.add(id, occur, row[occur]);
+		}
+
+		/** Get the cost of the counted coverings that were not replaced */
+		public double getOtherCost() {
+			return otherCost;
+		}
+
+		@Override
+		public SequenceDictionary getDictionary() {
+			return dictionary;
+		}
+
+		@Override
+		public Sequence getSequence(final int id) {
+			return dictionary.getSequence(id);
+		}
+
+		@Override
+		public double[] getRow(final int id) {
+			final int slot = touched.get(id);
+			if (slot >= 0)
+				return touchedRows[slot];
+			final int baseSlot = baseSlots.get(id);
+			return baseSlot < 0 ? null : baseRows[baseSlot];
+		}
+
+		@Override
+		public int getMaxId() {
+			return maxId;
+		}
+
+		@Override
+		public int getRowVersion(final int id) {
+			return 0;
+		}
+	}
+
+}
@@ -0,0 +1,135 @@
+package sequencemining.transaction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+
+import sequencemining.sequence.AbstractSequence;
+import sequencemining.sequence.PositionIndex;
+import sequencemining.sequence.Sequence;
+
+/**
+ * Remapping of the (arbitrary, sparse) items of a dataset to the dense range
+ * 0..N-1 in decreasing order of frequency, so structures keyed by item can be
+ * plain arrays, along with the reverse map to translate back for output
+ * <p>
+ * Items without a frequency (i.e. negative items) are left as they are.
+ */
+public class ItemMap {
+
+	/** Original item of each dense item */
+	private final int[] labels;
+
+	/** Sorted original items and their dense items */
+	private final int[] sortedItems;
+	private final int[] denseItems;
+
+	private ItemMap(final int[] labels) {
+		this.labels = labels;
+		this.sortedItems = labels.clone();
+		Arrays.sort(sortedItems);
+		this.denseItems = new int[labels.length];
+		for (int dense = 0; dense < labels.length; dense++)
+			denseItems[Arrays.binarySearch(sortedItems, labels[dense])] = dense;
+	}
+
+	/**
+	 * Rank the items of given initial singleton probabilities in decreasing
+	 * order of their probability of occurring (ties by item)
+	 */
+	public static ItemMap rankedBy(final Table<Sequence, Integer, Double> initProbs) {
+		final List<Sequence> singletons = new ArrayList<>(initProbs.rowKeySet());
+		singletons.sort(Comparator.comparingDouble((final Sequence seq) -> initProbs.get(seq, 0))
+				.thenComparingInt(seq -> seq.get(0)));
+		return new ItemMap(singletons.stream().mapToInt(seq -> seq.get(0)).toArray());
+	}
+
+	/** Get the no. of dense items */
+	public int size() {
+		return labels.length;
+	}
+
+	/** Get the original items in order of their dense items */
+	public int[] getLabels() {
+		return labels.clone();
+	}
+
+	public int toDense(final int item) {
+		final int i = Arrays.binarySearch(sortedItems, item);
+		if (i < 0) {
+			if (item >= 0)
+				throw new IllegalArgumentException("Item not in the dataset: " + item);
+			return item;
+		}
+		return denseItems[i];
+	}
+
+	public int toOriginal(final int item) {
+		return item >= 0 ? labels[item] : item;
+	}
+
+	public Sequence toDense(final Sequence seq) {
+		final int[] items = seq.toIntArray();
+		for (int i = 0; i < items.length; i++)
+			items[i] = toDense(items[i]);
+		return new Sequence(items);
+	}
+
+	public Sequence toOriginal(final AbstractSequence seq) {
+		final int[] items = seq.toIntArray();
+		for (int i = 0; i < items.length; i++)
+			items[i] = toOriginal(items[i]);
+		return new Sequence(items);
+	}
+
+	/** Copy of given transaction (without its caches) with dense items */
+	public Transaction toDense(final Transaction transaction) {
+		final int[] items = transaction.toIntArray();
+		for (int i = 0; i < items.length; i++)
+			items[i] = toDense(items[i]);
+		final Transaction dense = new Transaction(items);
+		if (dense.size() >= PositionIndex.MIN_SEQUENCE_LENGTH)
+			dense.buildIndex();
+		return dense;
+	}
+
+	/** Copy of given table with dense items (in the same order) */
+	public Table<Sequence, Integer, Double> toDense(final Table<Sequence, Integer, Double> probs) {
+		final Table<Sequence, Integer, Double> dense = HashBasedTable.create();
+		for (final Sequence seq : probs.rowKeySet())
+			dense.row(toDense(seq)).putAll(probs.row(seq));
+		return dense;
+	}
+
+	/** Copy of given table with original items (in the same order) */
+	public Table<Sequence, Integer, Double> toOriginal(final Table<Sequence, Integer, Double> probs) {
+		final Table<Sequence, Integer, Double> original = HashBasedTable.create();
+		for (final Sequence seq : probs.rowKeySet())
+			original.row(toOriginal(seq)).putAll(probs.row(seq));
+		return original;
+	}
+
+	/** Copy of given map with original items */
+	public <V> HashMap<Sequence, V> toOriginal(final Map<Sequence, V> map) {
+		final HashMap<Sequence, V> original = new HashMap<>();
+		for (final Entry<Sequence, V> entry : map.entrySet())
+			original.put(toOriginal(entry.getKey()), entry.getValue());
+		return original;
+	}
+
+	/**
+	 * Compare given sequences as the string representations of their original
+	 * items would compare (cf. {@link AbstractSequence#compareAsStrings})
+	 */
+	public int compareAsStrings(final AbstractSequence seq1, final AbstractSequence seq2) {
+		return AbstractSequence.compareAsStrings(seq1, seq2, labels);
+	}
+
+}
@@ -0,0 +1,93 @@
+package sequencemining.transaction;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Vertical occurrence list of a sequence, i.e. the sorted IDs of the
+ * transactions containing it along with the end of its earliest and the start
+ * of its latest occurrence in each
+ * <p>
+ * A transaction contains the join of two sequences iff the earliest
+ * occurrence of the first ends at or before the start of the latest
+ * occurrence of the second, so supports of joins can be found by merging the
+ * occurrence lists of their parents.
+ */
+public class Occurrences {
+
+	private final int[] ids;
+	private final int[] firstEnds;
+	private final int[] lastStarts;
+
+	/**
+	 * Constructor
+	 *
+	 * @param ids
+	 *            sorted IDs of the transactions containing the sequence
+	 * @param firstEnds
+	 *            position after the earliest occurrence in each transaction
+	 * @param lastStarts
+	 *            position of the latest occurrence in each transaction
+	 */
+	public Occurrences(final int[] ids, final int[] firstEnds, final int[] lastStarts) {
+		this.ids = ids;
+		this.firstEnds = firstEnds;
+		this.lastStarts = lastStarts;
+	}
+
+	/** Get the number of transactions containing the sequence */
+	public int size() {
+		return ids.length;
+	}
+
+	/** ID of the i-th transaction containing the sequence */
+	public int getId(final int i) {
+		return ids[i];
+	}
+
+	/** Concatenate occurrence lists of consecutive ranges of transactions */
+	public static Occurrences concat(final List<Occurrences> parts) {
+		int n = 0;
+		for (final Occurrences part : parts)
+			n += part.size();
+		final int[] ids = new int[n];
+		final int[] firstEnds = new int[n];
+		final int[] lastStarts = new int[n];
+		n = 0;
+		for (final Occurrences part : parts) {
+			System.arraycopy(part.ids, 0, ids, n, part.size());
+			System.arraycopy(part.firstEnds, 0, firstEnds, n, part.size());
+			System.arraycopy(part.lastStarts, 0, lastStarts, n, part.size());
+			n += part.size();
+		}
+		return new Occurrences(ids, firstEnds, lastStarts);
+	}
+
+	/**
+	 * Get the sorted IDs of the transactions that contain the join of the
+	 * sequences with given occurrences
+	 */
+	public static int[] join(final Occurrences left, final Occurrences right) {
+		final int[] joined = new int[Math.min(left.ids.length, right.ids.length)];
+		int n = 0;
+		for (int i = 0, j = 0; i < left.ids.length && j < right.ids.length;) {
+			if (left.ids[i] < right.ids[j]) {
+				i++;
+			} else if (left.ids[i] > right.ids[j]) {
+				j++;
+			} else {
+				if (left.firstEnds[i] <= right.lastStarts[j])
+					joined[n++] = left.ids[i];
+				i++;
+				j++;
+			}
+		}
+		return Arrays.copyOf(joined, n);
+	}
+
+	/** Approximate resident size in bytes */
+	public long residentBytes() {
+		return 3L * 4 * ids.length;
+	}
+
+}
@@ -0,0 +1,211 @@
+package sequencemining.transaction;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.google.common.collect.Table;
+
+import sequencemining.sequence.Sequence;
+import sequencemining.sequence.SequenceDictionary;
+
+/**
+ * Versioned table of sequence probabilities shared by all transactions
+ * <p>
+ * Rows are indexed by sequence ID (see {@link SequenceDictionary}) and
+ * columns by occurrence, i.e. row[occur] = p(z_S = occur). Transactions only
+ * store the IDs of the cached sequences they contain so an EM-step updates
+ * this single table rather than every transaction's cache.
+ * <p>
+ * Every change to the contents of a row stamps it with a new value of a
+ * logical clock, so transactions can tell whether any of the rows they depend
+ * on have changed since they were last inferred.
+ */
+public class ProbabilityTable implements SequenceProbabilities, Serializable {
+	private static final long serialVersionUID = 4626420302755417150L;
+
+	private final SequenceDictionary dictionary;
+
+	/** Probability rows indexed by sequence ID (null if not in table) */
+	private double[][] rows;
+
+	/** Incremented every time rows are removed from the table */
+	private volatile int version = 0;
+
+	/** Clock value at which each row was last changed */
+	private int[] rowVersions;
+	private volatile int clock = 0;
+
+	/**
+	 * Constructor
+	 *
+	 * @param dictionary
+	 *            dictionary used to assign sequence IDs
+	 */
+	public ProbabilityTable(final SequenceDictionary dictionary) {
+		this.dictionary = dictionary;
+		this.rows = new double[Math.max(64, dictionary.size())][];
+		this.rowVersions = new int[rows.length];
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param dictionary
+	 *            dictionary used to assign sequence IDs
+	 * @param probs
+	 *            sequence x occurrence x probability table to copy
+	 */
+	public ProbabilityTable(final SequenceDictionary dictionary, final Table<Sequence, Integer, Double> probs) {
+		this(dictionary);
+		for (final Sequence seq : probs.rowKeySet())
+			putRow(dictionary.getId(seq), probs.row(seq));
+	}
+
+	@Override
+	public SequenceDictionary getDictionary() {
+		return dictionary;
+	}
+
+	@Override
+	public Sequence getSequence(final int id) {
+		return dictionary.getSequence(id);
+	}
+
+	@Override
+	public double[] getRow(final int id) {
+		return id < rows.length ? rows[id] : null;
+	}
+
+	public boolean containsRow(final int id) {
+		return getRow(id) != null;
+	}
+
+	@Override
+	public int getMaxId() {
+		return rows.length;
+	}
+
+	/** Get the version of this table */
+	public int getVersion() {
+		return version;
+	}
+
+	/** Get the current value of the logical clock */
+	public int getClock() {
+		return clock;
+	}
+
+	@Override
+	public int getRowVersion(final int id) {
+		return id < rowVersions.length ? rowVersions[id] : 0;
+	}
+
+	/**
+	 * Put given probabilities into the row for given sequence ID, keeping any
+	 * existing entries for other occurrences
+	 */
+	public synchronized void putRow(final int id, final Map<Integer, Double> prob) {
+		if (id >= rows.length) {
+			rows = Arrays.copyOf(rows, Math.max(2 * rows.length, id + 1));
+			rowVersions = Arrays.copyOf(rowVersions, rows.length);
+		}
+		setRow(id, mergeRow(rows[id], prob));
+	}
+
+	/** Copy of given row (may be null) with given probabilities put into it */
+	private static double[] mergeRow(final double[] oldRow, final Map<Integer, Double> prob) {
+		int length = oldRow == null ? 0 : oldRow.length;
+		for (final int occur : prob.keySet())
+			length = Math.max(length, occur + 1);
+		final double[] row = oldRow == null ? new double[length] : Arrays.copyOf(oldRow, length);
+		for (final Entry<Integer, Double> entry : prob.entrySet())
+			row[entry.getKey()] = entry.getValue();
+		return row;
+	}
+
+	/** Set the row for given ID, stamping it if its contents changed */
+	private void setRow(final int id, final double[] row) {
+		if (!Arrays.equals(rows[id], row))
+			rowVersions[id] = ++clock;
+		rows[id] = row;
+	}
+
+	/**
+	 * Update table with new sequence probabilities. Rows of sequences no longer
+	 * in the model are removed, except for singletons which are zeroed so they
+	 * can still be used to fill incomplete coverings.
+	 */
+	public synchronized void update(final Table<Sequence, Integer, Double> newSequences) {
+		for (int id = 0; id < rows.length; id++) {
+			if (rows[id] == null)
+				continue;
+			final Sequence seq = dictionary.getSequence(id);
+			final Map<Integer, Double> newRow = newSequences.row(seq);
+			if (!newRow.isEmpty()) { // TODO zeros to clear ok?
+				setRow(id, mergeRow(new double[rows[id].length], newRow));
+			} else if (seq.size() == 1) {
+				setRow(id, new double[rows[id].length]); // so we can fill incomplete coverings
+			} else {
+				setRow(id, null);
+			}
+		}
+		version++;
+	}
+
+	/**
+	 * Get a read-only view of this table with the row for given sequence ID
+	 * replaced by given probabilities, leaving this table untouched
+	 */
+	public SequenceProbabilities withRow(final int id, final Map<Integer, Double> prob) {
+		return new Overlay(this, id, mergeRow(null, prob));
+	}
+
+	/** Read-only view of a table with a single row overridden */
+	private static class Overlay implements SequenceProbabilities {
+		private final SequenceProbabilities base;
+		private final int id;
+		private final double[] row;
+
+		Overlay(final SequenceProbabilities base, final int id, final double[] row) {
+			this.base = base;
+			this.id = id;
+			this.row = row;
+		}
+
+		@Override
+		public SequenceDictionary getDictionary() {
+			return base.getDictionary();
+		}
+
+		@Override
+		public Sequence getSequence(final int id) {
+			return base.getSequence(id);
+		}
+
+		@Override
+		public double[] getRow(final int id) {
+			return id == this.id ? row : base.getRow(id);
+		}
+
+		@Override
+		public int getMaxId() {
+			return Math.max(base.getMaxId(), id + 1);
+		}
+
+		@Override
+		public int getRowVersion(final int id) {
+			return base.getRowVersion(id);
+		}
+	}
+
+	/** Check if given row is all zeros, i.e. only used for filling coverings */
+	public static boolean isZero(final double[] row) {
+		double sum = 0;
+		for (final double elem : row)
+			sum += elem;
+		return sum == 0.;
+	}
+
+}
@@ -0,0 +1,433 @@
+package sequencemining.transaction;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+import sequencemining.sequence.Sequence;
+
+/**
+ * Out-of-core transaction database for datasets larger than the heap
+ * <p>
+ * Transactions (along with their caches and coverings) are stored in
+ * fixed-size segments on disk (or compressed in memory, see
+ * {@link CompressedTransactionDatabase}) and only a bounded number of
+ * segments are resident at any time. Segments are read on demand in least
+ * recently used order, prefetching the next segment in the background, and
+ * written back on eviction if they have been modified by {@link #update}.
+ * Only the items present in each segment are kept in memory to skip segments
+ * when counting supports. The segments are discarded on {@link #close}.
+ */
+public class SegmentedTransactionDatabase extends TransactionDatabase {
+
+	private final Store store;
+	private final int segmentSize;
+	private final int maxResidentSegments;
+	private final int size;
+
+	/** Sorted distinct items present in each segment */
+	private final List<int[]> segmentItems = new ArrayList<>();
+
+	/** Guards the segment cache (not this, which callers may lock) */
+	private final Object lock = new Object();
+
+	/** Resident segments (null if not resident) */
+	private final AtomicReferenceArray<Segment> loaded;
+	private int noLoaded = 0;
+
+	/** Segments being read */
+	private final Map<Integer, FutureTask<Segment>> loading = new HashMap<>();
+
+	/** Logical clock for the least recently used eviction order */
+	private long clock = 0;
+
+	private final ExecutorService prefetcher = Executors.newSingleThreadExecutor(r -> {
+		final Thread thread = new Thread(r, "segment-prefetcher");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/** Read-through view of the transactions */
+	private final List<Transaction> transactionList = new TransactionView();
+
+	private static class Segment {
+		private final TransactionBlock block;
+		private int pins = 0;
+		private boolean dirty = false;
+		private long lastAccess; // racy but only used as an eviction hint
+
+		private Segment(final TransactionBlock block) {
+			this.block = block;
+		}
+	}
+
+	/** Storage of the non-resident segments (discarded when closed) */
+	interface Store extends Closeable {
+		void write(int k, TransactionBlock block) throws IOException;
+
+		TransactionBlock read(int k) throws IOException, ClassNotFoundException;
+	}
+
+	/** Store of serialized segments in a temporary directory */
+	private static class FileStore implements Store {
+		private final File directory;
+
+		private FileStore() throws IOException {
+			this.directory = Files.createTempDirectory("transactions").toFile();
+			this.directory.deleteOnExit();
+		}
+
+		private File getSegmentFile(final int k) {
+			return new File(directory, "segment-" + k + ".bin");
+		}
+
+		@Override
+		public void write(final int k, final TransactionBlock block) throws IOException {
+			final File file = getSegmentFile(k);
+			file.deleteOnExit();
+			try (final ObjectOutputStream out = new ObjectOutputStream(
+					new BufferedOutputStream(new FileOutputStream(file)))) {
+				out.writeObject(block);
+			}
+		}
+
+		@Override
+		public TransactionBlock read(final int k) throws IOException, ClassNotFoundException {
+			try (final ObjectInputStream in = new ObjectInputStream(
+					new BufferedInputStream(new FileInputStream(getSegmentFile(k))))) {
+				return (TransactionBlock) in.readObject();
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			final File[] files = directory.listFiles();
+			if (files != null) {
+				for (final File file : files)
+					Files.deleteIfExists(file.toPath());
+			}
+			Files.deleteIfExists(directory.toPath());
+		}
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param transactions
+	 *            iterator over the transactions to store (consumed)
+	 * @param segmentSize
+	 *            no. of transactions per segment
+	 * @param maxResidentSegments
+	 *            max. no. of segments to keep in memory (should exceed the
+	 *            no. of threads)
+	 */
+	public SegmentedTransactionDatabase(final Iterator<Transaction> transactions, final int segmentSize,
+			final int maxResidentSegments) throws IOException {
+		this(transactions, segmentSize, maxResidentSegments, new FileStore());
+	}
+
+	SegmentedTransactionDatabase(final Iterator<Transaction> transactions, final int segmentSize,
+			final int maxResidentSegments, final Store store) throws IOException {
+		this.store = store;
+		this.segmentSize = segmentSize;
+		this.maxResidentSegments = maxResidentSegments;
+
+		int noTransactions = 0;
+		final Transaction[] buffer = new Transaction[segmentSize];
+		while (transactions.hasNext()) {
+			buffer[noTransactions++ % segmentSize] = transactions.next();
+			if (noTransactions % segmentSize == 0)
+				appendSegment(buffer);
+		}
+		if (noTransactions % segmentSize != 0)
+			appendSegment(Arrays.copyOf(buffer, noTransactions % segmentSize));
+		this.size = noTransactions;
+		this.loaded = new AtomicReferenceArray<>(segmentItems.size());
+	}
+
+	Store getStore() {
+		return store;
+	}
+
+	private void appendSegment(final Transaction[] transactions) throws IOException {
+		final TransactionBlock block = TransactionBlock.of(Arrays.asList(transactions));
+		segmentItems.add(getDistinctItems(block));
+		store.write(segmentItems.size() - 1, block);
+	}
+
+	/** Get the sorted distinct items of the transactions in given block */
+	private static int[] getDistinctItems(final TransactionBlock block) {
+		final int[] items = Arrays.copyOf(block.getItems(), block.getOffset(block.size()));
+		Arrays.sort(items);
+		int noItems = 0;
+		for (int i = 0; i < items.length; i++) {
+			if (i == 0 || items[i] != items[i - 1])
+				items[noItems++] = items[i];
+		}
+		return Arrays.copyOf(items, noItems);
+	}
+
+	private Segment readSegment(final int k) throws IOException, ClassNotFoundException {
+		final TransactionBlock block = store.read(k);
+		block.setCachedProbabilities(getCachedProbabilities());
+		return new Segment(block);
+	}
+
+	/** Get the no. of segments */
+	public int getNoSegments() {
+		return segmentItems.size();
+	}
+
+	/**
+	 * Get given segment, reading it (and prefetching the next one) if it is
+	 * not resident
+	 */
+	private Segment getSegment(final int k) {
+		final Segment segment = loaded.get(k);
+		if (segment != null) {
+			segment.lastAccess = clock++;
+			return segment;
+		}
+		final FutureTask<Segment> task;
+		final boolean read;
+		synchronized (lock) {
+			if (loaded.get(k) != null)
+				return loaded.get(k);
+			read = !loading.containsKey(k);
+			if (read)
+				loading.put(k, new FutureTask<>(() -> readSegment(k)));
+			task = loading.get(k);
+		}
+		if (read) {
+			task.run();
+			if (k + 1 < segmentItems.size())
+				prefetch(k + 1);
+		}
+		try {
+			return finishLoading(k, task.get());
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		} catch (final ExecutionException e) {
+			throw new IllegalStateException("Failed to read transaction segment " + k, e.getCause());
+		}
+	}
+
+	/** Start reading given segment in the background if it is not resident */
+	private void prefetch(final int k) {
+		synchronized (lock) {
+			if (loaded.get(k) != null || loading.containsKey(k))
+				return;
+			final FutureTask<Segment> task = new FutureTask<>(() -> finishLoading(k, readSegment(k)));
+			loading.put(k, task);
+			prefetcher.execute(task);
+		}
+	}
+
+	/** Make given read segment resident, evicting others if necessary */
+	private Segment finishLoading(final int k, final Segment segment) {
+		synchronized (lock) {
+			if (loading.remove(k) != null) {
+				segment.lastAccess = clock++;
+				loaded.set(k, segment);
+				noLoaded++;
+				evict();
+			}
+			return loaded.get(k) != null ? loaded.get(k) : segment;
+		}
+	}
+
+	/** Evict least recently used segments that are not pinned */
+	private void evict() {
+		while (noLoaded > maxResidentSegments) {
+			int lru = -1;
+			for (int k = 0; k < loaded.length(); k++) {
+				final Segment segment = loaded.get(k);
+				if (segment != null && segment.pins == 0
+						&& (lru < 0 || segment.lastAccess < loaded.get(lru).lastAccess))
+					lru = k;
+			}
+			if (lru < 0) // all pinned
+				return;
+			final Segment segment = loaded.get(lru);
+			if (segment.dirty) {
+				try {
+					store.write(lru, segment.block);
+				} catch (final IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+			loaded.set(lru, null);
+			noLoaded--;
+		}
+	}
+
+	/** Get given segment and pin it in memory */
+	private Segment pin(final int k) {
+		while (true) {
+			final Segment segment = getSegment(k);
+			synchronized (lock) {
+				if (loaded.get(k) == segment) {
+					segment.pins++;
+					return segment;
+				}
+			}
+		}
+	}
+
+	/** Unpin given segment, marking it as modified */
+	private void unpin(final Segment segment) {
+		synchronized (lock) {
+			segment.pins--;
+			segment.dirty = true;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Segments are processed in turn (prefetching the next one) and pinned in
+	 * memory while their transactions are updated.
+	 */
+	@Override
+	public <R> R update(final int[] ids, final Supplier<R> supplier, final TransactionConsumer<R> accumulator,
+			final BiConsumer<R, R> combiner) {
+		R result = null;
+		int from = 0;
+		for (int k = 0; k < segmentItems.size(); k++) {
+			final int offset = k * segmentSize;
+			final int end = Math.min(size, offset + segmentSize);
+			final IntStream idStream;
+			if (ids == null) {
+				idStream = IntStream.range(offset, end);
+			} else {
+				int to = from;
+				while (to < ids.length && ids[to] < end)
+					to++;
+				if (to == from)
+					continue;
+				idStream = IntStream.of(Arrays.copyOfRange(ids, from, to));
+				from = to;
+			}
+			final Segment segment = pin(k);
+			try {
+				final R partial = idStream.parallel().collect(supplier,
+						(c, id) -> accumulator.accept(c, id, segment.block.get(id - offset)), combiner);
+				if (result == null)
+					result = partial;
+				else
+					combiner.accept(result, partial);
+			} finally {
+				unpin(segment);
+			}
+		}
+		return result != null ? result : supplier.get();
+	}
+
+	/**
+	 * Get the IDs of the transactions in given segment if it contains all
+	 * items of given sequence
+	 */
+	private int[] getTransactionsInSegmentContaining(final Sequence seq, final int k) {
+		final int[] items = segmentItems.get(k);
+		for (final int item : seq) {
+			if (Arrays.binarySearch(items, item) < 0)
+				return new int[0];
+		}
+		return IntStream.range(k * segmentSize, Math.min(size, (k + 1) * segmentSize)).toArray();
+	}
+
+	@Override
+	public SupportingTransactions getSupportingTransactions(final Sequence seq) {
+		final List<SupportingTransactions> parts = new ArrayList<>();
+		for (int k = 0; k < segmentItems.size(); k++) {
+			final int[] tids = getTransactionsInSegmentContaining(seq, k);
+			if (tids.length > 0)
+				parts.add(getSupportingTransactions(seq, tids));
+		}
+		return SupportingTransactions.concat(parts);
+	}
+
+	@Override
+	public Occurrences getOccurrences(final Sequence seq) {
+		final List<Occurrences> parts = new ArrayList<>();
+		for (int k = 0; k < segmentItems.size(); k++) {
+			final int[] tids = getTransactionsInSegmentContaining(seq, k);
+			if (tids.length > 0)
+				parts.add(getOccurrences(seq, tids));
+		}
+		return Occurrences.concat(parts);
+	}
+
+	@Override
+	public List<Transaction> getTransactionList() {
+		return transactionList;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean isInMemory() {
+		return false;
+	}
+
+	/** Stop prefetching and discard the stored segments */
+	@Override
+	public void close() throws IOException {
+		prefetcher.shutdownNow();
+		try {
+			prefetcher.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		store.close();
+	}
+
+	/**
+	 * Read-through list view of the transactions (changes to transactions are
+	 * only kept while their segment is resident)
+	 */
+	private class TransactionView extends AbstractList<Transaction> implements RandomAccess {
+
+		@Override
+		public Transaction get(final int index) {
+			if (index < 0 || index >= size)
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+			return getSegment(index / segmentSize).block.get(index % segmentSize);
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+	}
+
+}
@@ -0,0 +1,28 @@
+package sequencemining.transaction;
+
+import sequencemining.sequence.Sequence;
+import sequencemining.sequence.SequenceDictionary;
+
+/**
+ * Read-only view of sequence probabilities indexed by sequence ID, i.e.
+ * row[occur] = p(z_S = occur), as taken by the inference and cost code (see
+ * {@link ProbabilityTable})
+ */
+public interface SequenceProbabilities {
+
+	/** Get the dictionary the sequence IDs refer to */
+	SequenceDictionary getDictionary();
+
+	/** Get the sequence with given ID */
+	Sequence getSequence(int id);
+
+	/** Get probability row for given sequence ID (null if not in table) */
+	double[] getRow(int id);
+
+	/** Upper bound on the IDs of sequences with a row */
+	int getMaxId();
+
+	/** Get the clock value at which the row for given ID last changed */
+	int getRowVersion(int id);
+
+}
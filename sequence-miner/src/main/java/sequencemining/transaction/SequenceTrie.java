@@ -0,0 +1,151 @@
+package sequencemining.transaction;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.stream.IntStream;
+
+import sequencemining.sequence.Sequence;
+
+/**
+ * Prefix trie of sequences for counting their supports in a single pass over
+ * the transactions
+ * <p>
+ * Each transaction is walked once against the trie: a prefix is matched
+ * (allowing gaps) by resuming from the end of the earliest match of its
+ * parent prefix, so prefixes shared by several sequences are only matched
+ * once per transaction.
+ */
+public class SequenceTrie {
+
+	/** Item of each node (nodes in breadth-first order, root is node 0) */
+	private final int[] nodeItems;
+
+	/** Children of node n are nodes firstChild[n] .. firstChild[n+1]-1 */
+	private final int[] firstChild;
+
+	/** Index of the sequence ending at each node (-1 if none) */
+	private final int[] slots;
+
+	private final int noSequences;
+
+	/**
+	 * Constructor
+	 *
+	 * @param sequences
+	 *            distinct sequences to count (slot = list index)
+	 */
+	public SequenceTrie(final List<Sequence> sequences) {
+		noSequences = sequences.size();
+
+		// Build trie with sorted children
+		final Node root = new Node(-1);
+		int noNodes = 1;
+		for (int slot = 0; slot < sequences.size(); slot++) {
+			Node node = root;
+			for (final int item : sequences.get(slot)) {
+				Node child = node.children.get(item);
+				if (child == null) {
+					child = new Node(item);
+					node.children.put(item, child);
+					noNodes++;
+				}
+				node = child;
+			}
+			node.slot = slot;
+		}
+
+		// Flatten in breadth-first order so siblings are contiguous
+		nodeItems = new int[noNodes];
+		firstChild = new int[noNodes + 1];
+		slots = new int[noNodes];
+		final Queue<Node> queue = new ArrayDeque<>();
+		queue.add(root);
+		int n = 0;
+		int next = 1;
+		while (!queue.isEmpty()) {
+			final Node node = queue.poll();
+			nodeItems[n] = node.item;
+			slots[n] = node.slot;
+			firstChild[n] = next;
+			next += node.children.size();
+			queue.addAll(node.children.values());
+			n++;
+		}
+		firstChild[noNodes] = next;
+	}
+
+	private static class Node {
+		private final int item;
+		private int slot = -1;
+		private final Map<Integer, Node> children = new TreeMap<>();
+
+		private Node(final int item) {
+			this.item = item;
+		}
+	}
+
+	/**
+	 * Count the number of given transactions containing each sequence
+	 *
+	 * @return the supports indexed by sequence slot
+	 */
+	public int[] countSupports(final List<Transaction> transactions) {
+		return IntStream.range(0, transactions.size()).parallel().collect(Counter::new,
+				(counter, i) -> counter.visit(transactions.get(i), 0, 0), Counter::merge).counts;
+	}
+
+	/** Per-thread support counters */
+	private class Counter {
+		private final int[] counts = new int[noSequences];
+
+		/** Stamp of the visit that last matched each node */
+		private final int[] matched = new int[nodeItems.length];
+		private int stamp = 0;
+
+		/** Count sequences in the subtrie of given node matched from given position */
+		private void visit(final Transaction transaction, final int node, final int from) {
+			if (slots[node] >= 0)
+				counts[slots[node]]++;
+			final int start = firstChild[node];
+			final int end = firstChild[node + 1];
+			if (start == end)
+				return;
+
+			// Look up children directly if the transaction is indexed
+			if (transaction.isIndexed() && end - start < transaction.size() - from) {
+				for (int child = start; child < end; child++) {
+					final int pos = transaction.nextPosition(nodeItems[child], from);
+					if (pos >= 0)
+						visit(transaction, child, pos + 1);
+				}
+				return;
+			}
+
+			// Otherwise scan once, descending at the first match of each child
+			if (++stamp == 0) { // wrapped around
+				Arrays.fill(matched, 0);
+				stamp = 1;
+			}
+			final int visit = stamp;
+			int remaining = end - start;
+			for (int pos = from; pos < transaction.size() && remaining > 0; pos++) {
+				final int child = Arrays.binarySearch(nodeItems, start, end, transaction.get(pos));
+				if (child >= 0 && matched[child] != visit) {
+					matched[child] = visit;
+					remaining--;
+					visit(transaction, child, pos + 1);
+				}
+			}
+		}
+
+		private void merge(final Counter other) {
+			for (int slot = 0; slot < noSequences; slot++)
+				counts[slot] += other.counts[slot];
+		}
+	}
+
+}
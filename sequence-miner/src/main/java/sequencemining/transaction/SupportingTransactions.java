@@ -0,0 +1,90 @@
+package sequencemining.transaction;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Transactions supporting a sequence, i.e. their sorted IDs (list indices)
+ * and the number of times each contains the sequence
+ */
+public class SupportingTransactions {
+
+	private final int[] ids;
+	private final int[] repetitions;
+
+	/**
+	 * Constructor
+	 *
+	 * @param ids
+	 *            sorted IDs of the supporting transactions
+	 * @param repetitions
+	 *            repetitions of the sequence in each supporting transaction
+	 */
+	public SupportingTransactions(final int[] ids, final int[] repetitions) {
+		this.ids = ids;
+		this.repetitions = repetitions;
+	}
+
+	/** Concatenate supporting transactions of consecutive ranges of transactions */
+	public static SupportingTransactions concat(final List<SupportingTransactions> parts) {
+		int n = 0;
+		for (final SupportingTransactions part : parts)
+			n += part.size();
+		final int[] ids = new int[n];
+		final int[] repetitions = new int[n];
+		n = 0;
+		for (final SupportingTransactions part : parts) {
+			System.arraycopy(part.ids, 0, ids, n, part.size());
+			System.arraycopy(part.repetitions, 0, repetitions, n, part.size());
+			n += part.size();
+		}
+		return new SupportingTransactions(ids, repetitions);
+	}
+
+	/** Get the support, i.e. the number of supporting transactions */
+	public int size() {
+		return ids.length;
+	}
+
+	/** ID of the i-th supporting transaction */
+	public int getId(final int i) {
+		return ids[i];
+	}
+
+	/** Index of given transaction ID (negative if not supporting) */
+	public int indexOf(final int id) {
+		return Arrays.binarySearch(ids, id);
+	}
+
+	/** Repetitions of the sequence in the i-th supporting transaction */
+	public int getRepetitions(final int i) {
+		return repetitions[i];
+	}
+
+	/** Max. no. of repetitions of the sequence in any transaction */
+	public int getMaxRepetitions() {
+		int maxReps = 0;
+		for (final int reps : repetitions)
+			maxReps = Math.max(maxReps, reps);
+		return maxReps;
+	}
+
+	/** Check if any supporting transaction ID is set in given BitSet */
+	public boolean intersects(final BitSet bitSet) {
+		for (final int id : ids) {
+			if (bitSet.get(id))
+				return true;
+		}
+		return false;
+	}
+
+	/** Get the supporting transaction IDs as a BitSet */
+	public BitSet toBitSet() {
+		final BitSet bitSet = new BitSet();
+		for (final int id : ids)
+			bitSet.set(id);
+		return bitSet;
+	}
+
+}
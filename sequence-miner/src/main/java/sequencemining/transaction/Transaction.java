@@ -1,130 +1,217 @@
 package sequencemining.transaction;
 
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 
-import com.google.common.collect.HashBasedTable;
-import com.google.common.collect.Multiset;
 import com.google.common.collect.Table;
+import com.google.common.primitives.Ints;
 
 import sequencemining.sequence.AbstractSequence;
 import sequencemining.sequence.Sequence;
+import sequencemining.sequence.SequenceDictionary;
 
 /** A transaction is an ordered list of items */
 public class Transaction extends AbstractSequence implements Serializable {
 	private static final long serialVersionUID = 3327396055332538091L;
 
-	/** Cached sequences and probabilities for this transaction */
-	private Table<Sequence, Integer, Double> cachedSequences;
+	/**
+	 * Block holding the caches of this transaction and the slot of this
+	 * transaction in it (a block of its own is created on first use if this
+	 * transaction is not a view of a block, see {@link TransactionBlock})
+	 */
+	private TransactionBlock block;
+	private int slot;
 
-	/** Cached covering for this transaction */
-	private Multiset<Sequence> cachedCovering;
-	private Multiset<Sequence> tempCachedCovering;
+	/** View of the transaction in given slot of given block */
+	Transaction(final TransactionBlock block, final int slot) {
+		setSharedItems(block.getItems(), block.getOffset(slot), block.getLength(slot), block.getIndex(slot));
+		this.block = block;
+		this.slot = slot;
+	}
 
-	public void initializeCachedSequences(final Table<Sequence, Integer, Double> initProbs) {
-		final Table<Sequence, Integer, Double> probs = HashBasedTable.create();
-		for (final Sequence seq : initProbs.rowKeySet()) {
-			if (this.contains(seq))
-				probs.row(seq).putAll(initProbs.row(seq));
+	/** Get the block holding the caches of this transaction */
+	private TransactionBlock cache() {
+		if (block == null)
+			block = new TransactionBlock(1);
+		return block;
+	}
+
+	/** Initialize cache with the sequences in the given shared table */
+	public void initializeCachedSequences(final ProbabilityTable probabilities) {
+		final int[] ids = new int[probabilities.getMaxId()];
+		int noIds = 0;
+		for (int id = 0; id < probabilities.getMaxId(); id++) {
+			if (probabilities.containsRow(id) && this.contains(probabilities.getSequence(id)))
+				ids[noIds++] = id;
 		}
-		cachedSequences = probs;
+		cache().setCachedProbabilities(probabilities);
+		block.setCachedSequenceIds(slot, Arrays.copyOf(ids, noIds), probabilities.getVersion());
 	}
 
-	public Table<Sequence, Integer, Double> getCachedSequences() {
-		return cachedSequences;
+	/** Initialize cache with the sequences in the given (unshared) table */
+	public void initializeCachedSequences(final Table<Sequence, Integer, Double> initProbs) {
+		initializeCachedSequences(new ProbabilityTable(new SequenceDictionary(), initProbs));
 	}
 
-	public void addSequenceCache(final Sequence candidate, final Map<Integer, Double> prob) {
-		cachedSequences.row(candidate).putAll(prob);
+	/**
+	 * Get IDs of the cached sequences contained in this transaction (in the
+	 * order they were added to the cache)
+	 * <p>
+	 * N.B. the returned array must not be modified
+	 */
+	public int[] getCachedSequenceIds() {
+		final ProbabilityTable probabilities = cache().getCachedProbabilities();
+		final int cachedVersion = block.getCachedVersion(slot);
+		final int[] cachedSequenceIds = block.getCachedSequenceIds(slot);
+		if (cachedVersion != probabilities.getVersion()) { // drop removed sequences
+			final int version = probabilities.getVersion();
+			final int[] ids = new int[cachedSequenceIds.length];
+			int noIds = 0;
+			for (final int id : cachedSequenceIds) {
+				if (probabilities.containsRow(id))
+					ids[noIds++] = id;
+			}
+			final int[] newIds = noIds < cachedSequenceIds.length ? Arrays.copyOf(ids, noIds) : cachedSequenceIds;
+			block.setCachedSequenceIds(slot, newIds, version);
+			return newIds;
+		}
+		return cachedSequenceIds;
 	}
 
-	public void removeSequenceCache(final Sequence candidate) {
-		cachedSequences.row(candidate).clear();
+	/** Get the shared probabilities of the cached sequences */
+	public ProbabilityTable getCachedProbabilities() {
+		return cache().getCachedProbabilities();
 	}
 
-	public void updateCachedSequences(final Table<Sequence, Integer, Double> newSequences) {
-		for (final Iterator<Sequence> it = cachedSequences.rowKeySet().iterator(); it.hasNext();) {
-			final Sequence seq = it.next();
-			if (newSequences.containsRow(seq)) { // TODO zeros to clear ok?
-				for (final Entry<Integer, Double> entry : cachedSequences.row(seq).entrySet())
-					entry.setValue(0.);
-				cachedSequences.row(seq).putAll(newSequences.row(seq));
-			} else if (seq.size() == 1) {
-				for (final Entry<Integer, Double> entry : cachedSequences.row(seq).entrySet())
-					entry.setValue(0.); // so we can fill incomplete coverings
-			} else
-				it.remove();
+	/**
+	 * Get IDs of the cached sequences with given ID appended (if not already
+	 * cached), leaving the cache untouched
+	 */
+	public int[] getCachedSequenceIdsWith(final int id) {
+		final int[] ids = getCachedSequenceIds();
+		for (final int cachedId : ids) {
+			if (cachedId == id)
+				return ids;
 		}
+		final int[] idsWith = Arrays.copyOf(ids, ids.length + 1);
+		idsWith[ids.length] = id;
+		return idsWith;
+	}
+
+	/** Add sequence with given ID (and row in the shared table) to the cache */
+	public void addSequenceCache(final int id) {
+		final int[] ids = getCachedSequenceIdsWith(id);
+		block.setCachedSequenceIds(slot, ids, block.getCachedVersion(slot));
+	}
+
+	/**
+	 * Add sequence to the cache, putting its probabilities into the shared
+	 * table
+	 */
+	public void addSequenceCache(final Sequence candidate, final Map<Integer, Double> prob) {
+		final ProbabilityTable probabilities = getCachedProbabilities();
+		final int id = probabilities.getDictionary().getId(candidate);
+		probabilities.putRow(id, prob);
+		addSequenceCache(id);
 	}
 
 	/** Get cost of cached covering for hard EM-step */
 	public double getCachedCost() {
+		final ProbabilityTable cachedProbabilities = getCachedProbabilities();
+		final Covering cachedCovering = getCachedCovering();
 		double totalCost = 0;
 		int lenCovering = 0;
 		// TODO triple check that this is right!!!
 		// Calculate (3.3)
-		for (final Sequence seq : cachedSequences.rowKeySet()) {
-			if (cachedCovering.contains(seq)) {
-				final int occur = cachedCovering.count(seq);
-				totalCost += -Math.log(cachedSequences.get(seq, occur));
+		for (final int id : getCachedSequenceIds()) {
+			final Sequence seq = cachedProbabilities.getSequence(id);
+			final double[] row = cachedProbabilities.getRow(id);
+			final int occur = cachedCovering.count(id);
+			if (occur > 0) {
+				totalCost += -Math.log(row[occur]);
 				for (int m = 1; m <= occur; m++) {
 					totalCost += sumLogRange(lenCovering + 1, lenCovering + seq.size());
 					lenCovering += seq.size();
 				}
-			} else if (seq.size() == 1 && sum(cachedSequences.row(seq).values()) == 0.) {
+			} else if (seq.size() == 1 && ProbabilityTable.isZero(row)) {
 				continue; // ignore singletons used to fill incomplete coverings
 			} else {
-				totalCost += -Math.log(cachedSequences.get(seq, 0));
+				totalCost += -Math.log(row[0]);
 			}
 		}
 		return totalCost;
 	}
 
-	/** Get cost of cached covering for structural EM-step */
-	public double getCachedCost(final Table<Sequence, Integer, Double> sequences) {
-		return calculateCachedCost(sequences, cachedCovering);
-	}
-
-	/** Get cost of temp. cached covering for structural EM-step */
-	public double getTempCachedCost(final Table<Sequence, Integer, Double> sequences) {
-		return calculateCachedCost(sequences, tempCachedCovering);
-	}
-
-	/** Calculate cached cost for structural EM-step */
-	private double calculateCachedCost(final Table<Sequence, Integer, Double> sequences,
-			final Multiset<Sequence> covering) {
+	/**
+	 * Calculate cost of given covering for structural EM-step
+	 *
+	 * @param sequences
+	 *            probabilities to calculate the cost under
+	 * @param probabilities
+	 *            probabilities the covering was inferred from
+	 * @param sequenceIds
+	 *            IDs of the sequences the covering was inferred from
+	 * @param covering
+	 *            the covering
+	 */
+	public double getCost(final SequenceProbabilities sequences, final SequenceProbabilities probabilities,
+			final int[] sequenceIds, final Covering covering) {
 		double totalCost = 0;
 		int lenCovering = 0;
-		for (final Sequence seq : cachedSequences.rowKeySet()) {
-			if (sequences.containsRow(seq)) {
-				if (covering.contains(seq)) {
-					final int occur = covering.count(seq);
-					totalCost += -Math.log(sequences.get(seq, occur));
+		for (final int id : sequenceIds) {
+			final double[] newRow = sequences.getRow(id);
+			if (newRow != null) {
+				final Sequence seq = probabilities.getSequence(id);
+				final int occur = covering.count(id);
+				if (occur > 0) {
+					totalCost += -Math.log(newRow[occur]);
 					for (int m = 1; m <= occur; m++) {
 						totalCost += sumLogRange(lenCovering + 1, lenCovering + seq.size());
 						lenCovering += seq.size();
 					}
-				} else if (seq.size() == 1 && sum(cachedSequences.row(seq).values()) == 0.) {
+				} else if (seq.size() == 1 && ProbabilityTable.isZero(probabilities.getRow(id))) {
 					continue; // ignore seqs used to fill incomplete coverings
 				} else {
-					totalCost += -Math.log(sequences.get(seq, 0));
+					totalCost += -Math.log(newRow[0]);
 				}
 			}
 		}
 		return totalCost;
 	}
 
-	private double sum(final Collection<Double> elems) {
-		double sum = 0;
-		for (final double elem : elems)
-			sum += elem;
-		return sum;
+	/**
+	 * Add the no. of occurrences of each cached sequence in the cached
+	 * covering, and the probability-free part of its cost, to given counts
+	 * (subtracting them if sign is negative), cf. {@link #getCost}
+	 */
+	public void addCachedCostCounts(final CoveringCounts counts, final int sign) {
+		final ProbabilityTable cachedProbabilities = getCachedProbabilities();
+		final Covering cachedCovering = getCachedCovering();
+		int lenCovering = 0;
+		for (final int id : getCachedSequenceIds()) {
+			final Sequence seq = cachedProbabilities.getSequence(id);
+			final int occur = cachedCovering.count(id);
+			if (occur > 0)
+				lenCovering += occur * seq.size();
+			else if (seq.size() == 1 && ProbabilityTable.isZero(cachedProbabilities.getRow(id)))
+				continue; // ignore seqs used to fill incomplete coverings
+			counts.add(id, occur, sign);
+		}
+		counts.addLengthCost(sign * sumLogRange(1, lenCovering));
+	}
+
+	/**
+	 * Get a lower bound on the cost of given covering under any probabilities
+	 * of its sequences, i.e. the probability-free part of the cost log(L!),
+	 * where L is the total length of the covering
+	 */
+	public double getCostLowerBound(final Covering covering) {
+		int lenCovering = 0;
+		for (int i = 0; i < covering.size(); i++)
+			lenCovering += covering.getCount(i) * getCachedProbabilities().getSequence(covering.getId(i)).size();
+		return sumLogRange(1, lenCovering);
 	}
 
 	private double sumLogRange(final int a, final int b) {
@@ -134,27 +221,80 @@ public class Transaction extends AbstractSequence implements Serializable {
 		return sum;
 	}
 
-	public void setCachedCovering(final Multiset<Sequence> covering) {
-		cachedCovering = covering;
+	/** Set covering inferred from the current cache */
+	public void setCachedCovering(final Covering covering) {
+		final int[] ids = getCachedSequenceIds();
+		block.setCachedCovering(slot, covering, ids, block.getCachedProbabilities().getClock());
 	}
 
-	public Multiset<Sequence> getCachedCovering() {
-		return cachedCovering;
+	public Covering getCachedCovering() {
+		return cache().getCachedCovering(slot);
 	}
 
-	public void setTempCachedCovering(final Multiset<Sequence> covering) {
-		tempCachedCovering = covering;
+	/**
+	 * Check if the cached covering was inferred for the current cache, i.e. if
+	 * the cached sequences and their probabilities are unchanged since
+	 */
+	public boolean isCachedCoveringUpToDate() {
+		final int[] coveringSequenceIds = cache().getCoveringSequenceIds(slot);
+		if (block.getCachedCovering(slot) == null || !Arrays.equals(getCachedSequenceIds(), coveringSequenceIds))
+			return false;
+		final ProbabilityTable cachedProbabilities = block.getCachedProbabilities();
+		final int coveringClock = block.getCoveringClock(slot);
+		for (final int id : coveringSequenceIds) {
+			if (cachedProbabilities.getRowVersion(id) > coveringClock)
+				return false;
+		}
+		return true;
 	}
 
-	public Multiset<Sequence> getTempCachedCovering() {
-		return tempCachedCovering;
+	/**
+	 * Set covering that was not inferred from the current cache (so it is
+	 * re-inferred in the next hard EM-step)
+	 */
+	public void setStaleCachedCovering(final Covering covering) {
+		cache().setCachedCovering(slot, covering, null, 0);
+	}
+
+	/**
+	 * Copy the index and caches of this transaction to given slot of given
+	 * block
+	 */
+	void copyTo(final TransactionBlock other, final int otherSlot) {
+		other.setIndex(otherSlot, getIndex());
+		if (block == null)
+			return;
+		if (other.getCachedProbabilities() == null)
+			other.setCachedProbabilities(block.getCachedProbabilities());
+		other.setCachedSequenceIds(otherSlot, block.getCachedSequenceIds(slot), block.getCachedVersion(slot));
+		other.setCachedCovering(otherSlot, block.getCachedCovering(slot), block.getCoveringSequenceIds(slot),
+				block.getCoveringClock(slot));
+	}
+
+	@Override
+	public void buildIndex() {
+		super.buildIndex();
+		if (block != null)
+			block.setIndex(slot, getIndex());
+	}
+
+	/** Serialize views of a block as standalone transactions */
+	private Object writeReplace() {
+		if (block == null || block.getItems() == null)
+			return this;
+		final Transaction copy = new Transaction(toIntArray());
+		if (isIndexed())
+			copy.buildIndex();
+		copy.block = new TransactionBlock(1);
+		copyTo(copy.block, 0);
+		return copy;
 	}
 
 	/**
 	 * Constructor
 	 */
 	public Transaction() {
-		this.items = new ArrayList<>();
+		this.items = new int[16];
 	}
 
 	/**
@@ -164,7 +304,9 @@ public class Transaction extends AbstractSequence implements Serializable {
 	 *            an array of items that should be added to the new sequence
 	 */
 	public Transaction(final Integer... items) {
-		this.items = new ArrayList<>(Arrays.asList(items));
+		this.items = new int[items.length];
+		for (final Integer item : items)
+			this.items[this.length++] = item;
 	}
 
 	/**
@@ -174,7 +316,20 @@ public class Transaction extends AbstractSequence implements Serializable {
 	 *            a List of items that should be added to the new sequence
 	 */
 	public Transaction(final List<Integer> items) {
-		this.items = new ArrayList<>(items);
+		this.items = Ints.toArray(items);
+		this.length = this.items.length;
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param items
+	 *            a primitive array of items that should be added to the new
+	 *            sequence (copied)
+	 */
+	public Transaction(final int[] items) {
+		this.items = items.clone();
+		this.length = items.length;
 	}
 
 }
\ No newline at end of file
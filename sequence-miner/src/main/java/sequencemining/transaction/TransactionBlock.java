@@ -0,0 +1,200 @@
+package sequencemining.transaction;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import sequencemining.sequence.PositionIndex;
+
+/**
+ * Block of transactions stored as parallel arrays
+ * <p>
+ * The items of all transactions are held in one contiguous arena and their
+ * caches and coverings in one array per field, so a block costs a few array
+ * slots per transaction rather than an object (and its arrays) each.
+ * {@link Transaction}s of a block are flyweight views of one of its slots
+ * that read and write these arrays.
+ * <p>
+ * A block may also hold the caches of a single standalone transaction only,
+ * whose items are kept by the transaction itself.
+ */
+class TransactionBlock implements Serializable {
+	private static final long serialVersionUID = -2107734659081000417L;
+
+	/** Items of transaction i are items[offsets[i]] .. items[offsets[i+1]-1] */
+	private int[] items;
+	private int[] offsets;
+
+	/** Item position indexes of long transactions (null if not built) */
+	private PositionIndex[] indexes;
+
+	/** Shared probabilities of the cached sequences (not serialized) */
+	private transient ProbabilityTable cachedProbabilities;
+
+	/** IDs of the cached sequences contained in each transaction */
+	private final int[][] cachedSequenceIds;
+
+	/** Versions of the shared probabilities the cached IDs are valid for */
+	private final AtomicIntegerArray cachedVersions;
+
+	/** Cached covering for each transaction */
+	private final Covering[] cachedCoverings;
+
+	/** Cached sequence IDs and clock values the coverings were inferred for */
+	private final int[][] coveringSequenceIds;
+	private final int[] coveringClocks;
+
+	/** Block holding the caches of given no. of transactions (but no items) */
+	TransactionBlock(final int size) {
+		cachedSequenceIds = new int[size][];
+		cachedVersions = new AtomicIntegerArray(size);
+		cachedCoverings = new Covering[size];
+		coveringSequenceIds = new int[size][];
+		coveringClocks = new int[size];
+	}
+
+	/**
+	 * Block of transactions with given items
+	 *
+	 * @param items
+	 *            items of all transactions (not copied)
+	 * @param offsets
+	 *            start of each transaction in the items followed by the end of
+	 *            the last one
+	 */
+	TransactionBlock(final int[] items, final int[] offsets) {
+		this(offsets.length - 1);
+		setItems(items, offsets);
+	}
+
+	/** Block of copies of given transactions (including any caches) */
+	static TransactionBlock of(final List<Transaction> transactions) {
+		long noItems = 0;
+		for (final Transaction transaction : transactions)
+			noItems += transaction.size();
+		if (noItems > Integer.MAX_VALUE - 8)
+			throw new IllegalArgumentException("Too many items for one block: " + noItems);
+		final int[] items = new int[(int) noItems];
+		final int[] offsets = new int[transactions.size() + 1];
+		for (int i = 0; i < transactions.size(); i++) {
+			final Transaction transaction = transactions.get(i);
+			offsets[i + 1] = offsets[i] + transaction.size();
+			for (int j = 0; j < transaction.size(); j++)
+				items[offsets[i] + j] = transaction.get(j);
+		}
+		final TransactionBlock block = new TransactionBlock(transactions.size());
+		block.items = items;
+		block.offsets = offsets;
+		block.indexes = new PositionIndex[transactions.size()];
+		for (int i = 0; i < transactions.size(); i++)
+			transactions.get(i).copyTo(block, i);
+		return block;
+	}
+
+	/**
+	 * Set the items of the transactions in this block (see
+	 * {@link #TransactionBlock(int[], int[])}), indexing long transactions
+	 */
+	void setItems(final int[] items, final int[] offsets) {
+		this.items = items;
+		this.offsets = offsets;
+		this.indexes = new PositionIndex[size()];
+		for (int i = 0; i < size(); i++) {
+			final int length = offsets[i + 1] - offsets[i];
+			if (length >= PositionIndex.MIN_SEQUENCE_LENGTH)
+				indexes[i] = new PositionIndex(items, offsets[i], length);
+		}
+	}
+
+	/** Copy of this block without its items (sharing its caches) */
+	TransactionBlock withoutItems() {
+		final TransactionBlock copy = new TransactionBlock(this);
+		copy.items = null;
+		copy.offsets = null;
+		copy.indexes = null;
+		return copy;
+	}
+
+	private TransactionBlock(final TransactionBlock block) {
+		cachedProbabilities = block.cachedProbabilities;
+		cachedSequenceIds = block.cachedSequenceIds;
+		cachedVersions = block.cachedVersions;
+		cachedCoverings = block.cachedCoverings;
+		coveringSequenceIds = block.coveringSequenceIds;
+		coveringClocks = block.coveringClocks;
+	}
+
+	/** Get the no. of transactions in this block */
+	int size() {
+		return cachedCoverings.length;
+	}
+
+	/** Get a view of the transaction in given slot */
+	Transaction get(final int slot) {
+		return new Transaction(this, slot);
+	}
+
+	int[] getItems() {
+		return items;
+	}
+
+	int getOffset(final int slot) {
+		return offsets[slot];
+	}
+
+	int getLength(final int slot) {
+		return offsets[slot + 1] - offsets[slot];
+	}
+
+	PositionIndex getIndex(final int slot) {
+		return indexes[slot];
+	}
+
+	void setIndex(final int slot, final PositionIndex index) {
+		if (indexes != null)
+			indexes[slot] = index;
+	}
+
+	ProbabilityTable getCachedProbabilities() {
+		return cachedProbabilities;
+	}
+
+	/** Set the shared probabilities (e.g. to re-attach them after deserialization) */
+	void setCachedProbabilities(final ProbabilityTable probabilities) {
+		cachedProbabilities = probabilities;
+	}
+
+	int[] getCachedSequenceIds(final int slot) {
+		return cachedSequenceIds[slot];
+	}
+
+	/** Set the cached IDs of given slot (valid for given version) */
+	void setCachedSequenceIds(final int slot, final int[] ids, final int version) {
+		cachedSequenceIds[slot] = ids;
+		cachedVersions.set(slot, version); // publishes the IDs
+	}
+
+	int getCachedVersion(final int slot) {
+		return cachedVersions.get(slot);
+	}
+
+	Covering getCachedCovering(final int slot) {
+		return cachedCoverings[slot];
+	}
+
+	int[] getCoveringSequenceIds(final int slot) {
+		return coveringSequenceIds[slot];
+	}
+
+	int getCoveringClock(final int slot) {
+		return coveringClocks[slot];
+	}
+
+	/** Set the covering of given slot and what it was inferred for */
+	void setCachedCovering(final int slot, final Covering covering, final int[] sequenceIds, final int clock) {
+		cachedCoverings[slot] = covering;
+		coveringSequenceIds[slot] = sequenceIds;
+		coveringClocks[slot] = clock;
+	}
+
+}
@@ -1,9 +1,19 @@
 package sequencemining.transaction;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+import sequencemining.sequence.Sequence;
+import sequencemining.sequence.SequenceDictionary;
 
 /** Wrapper class for storing a database of transactions */
-public abstract class TransactionDatabase {
+public abstract class TransactionDatabase implements Closeable {
 
 	/** Set to true if candidate generation iteration limit exceeded */
 	private boolean iterationLimitExceeded = false;
@@ -11,6 +21,18 @@ public abstract class TransactionDatabase {
 	/** Average cost across the transactions */
 	private double averageCost = Double.POSITIVE_INFINITY;
 
+	/** Dictionary of dense IDs for sequences seen during mining */
+	private final SequenceDictionary dictionary = new SequenceDictionary();
+
+	/** Probabilities of cached sequences shared by all transactions */
+	private ProbabilityTable cachedProbabilities;
+
+	/** Cost counts of the cached coverings (null if out of date) */
+	private CoveringCounts cachedCostCounts;
+
+	/** Remapping of the items to dense items (null if not remapped) */
+	private ItemMap itemMap;
+
 	/** Set the average cost */
 	public void setAverageCost(final double averageCost) {
 		this.averageCost = averageCost;
@@ -21,6 +43,54 @@ public abstract class TransactionDatabase {
 		return averageCost;
 	}
 
+	/** Set the remapping of the original items to the items of this database */
+	public void setItemMap(final ItemMap itemMap) {
+		this.itemMap = itemMap;
+	}
+
+	/** Get the remapping of the original items (null if not remapped) */
+	public ItemMap getItemMap() {
+		return itemMap;
+	}
+
+	/** Translate given sequence back to the original items (for output) */
+	public Sequence toOriginalItems(final Sequence seq) {
+		return itemMap != null ? itemMap.toOriginal(seq) : seq;
+	}
+
+	/**
+	 * Compare given sequences as the string representations of their
+	 * original items would compare
+	 */
+	public int compareAsStrings(final Sequence seq1, final Sequence seq2) {
+		return itemMap != null ? itemMap.compareAsStrings(seq1, seq2) : Sequence.compareAsStrings(seq1, seq2);
+	}
+
+	/** Get the sequence ID dictionary */
+	public SequenceDictionary getDictionary() {
+		return dictionary;
+	}
+
+	/** Set the shared probabilities of cached sequences */
+	public void setCachedProbabilities(final ProbabilityTable cachedProbabilities) {
+		this.cachedProbabilities = cachedProbabilities;
+	}
+
+	/** Get the shared probabilities of cached sequences */
+	public ProbabilityTable getCachedProbabilities() {
+		return cachedProbabilities;
+	}
+
+	/** Set the cost counts of the cached coverings (null if out of date) */
+	public void setCachedCostCounts(final CoveringCounts cachedCostCounts) {
+		this.cachedCostCounts = cachedCostCounts;
+	}
+
+	/** Get the cost counts of the cached coverings (null if out of date) */
+	public CoveringCounts getCachedCostCounts() {
+		return cachedCostCounts;
+	}
+
 	public void setIterationLimitExceeded() {
 		iterationLimitExceeded = true;
 	}
@@ -42,4 +112,104 @@ public abstract class TransactionDatabase {
 	/** Get the number of transactions in this database */
 	public abstract int size();
 
+	/**
+	 * Check if all transactions are held in memory (if not, data derived from
+	 * them such as occurrence lists should not be kept resident either)
+	 */
+	public boolean isInMemory() {
+		return true;
+	}
+
+	/** Release any resources held by this database (none by default) */
+	@Override
+	public void close() throws IOException {
+	}
+
+	/** Operation on a transaction (and its ID) that accumulates into a container */
+	public interface TransactionConsumer<R> {
+		void accept(R container, int id, Transaction transaction);
+	}
+
+	/**
+	 * Apply given action to the transactions with given sorted IDs (all if
+	 * null) in parallel, keeping any changes
+	 */
+	public void update(final int[] ids, final Consumer<Transaction> action) {
+		update(ids, () -> null, (c, id, t) -> action.accept(t), (c1, c2) -> {
+		});
+	}
+
+	/**
+	 * Perform a parallel mutable reduction over the transactions with given
+	 * sorted IDs (all if null) that may modify them, keeping any changes
+	 * <p>
+	 * N.B. changes made to transactions obtained from
+	 * {@link #getTransactionList()} are only guaranteed to be kept by in-memory
+	 * databases
+	 */
+	public <R> R update(final int[] ids, final Supplier<R> supplier, final TransactionConsumer<R> accumulator,
+			final BiConsumer<R, R> combiner) {
+		final List<Transaction> transactions = getTransactionList();
+		final IntStream idStream = ids == null ? IntStream.range(0, transactions.size()) : IntStream.of(ids);
+		return idStream.parallel().collect(supplier, (c, id) -> accumulator.accept(c, id, transactions.get(id)),
+				combiner);
+	}
+
+	/**
+	 * Get the IDs (i.e. list indices) of the transactions that contain given
+	 * sequence along with the number of times they contain it
+	 */
+	public abstract SupportingTransactions getSupportingTransactions(final Sequence seq);
+
+	/** Get the vertical occurrence list of given sequence */
+	public abstract Occurrences getOccurrences(final Sequence seq);
+
+	/**
+	 * Get the supporting transactions of given join of two sequences from the
+	 * occurrence lists of its parents (without scanning other transactions)
+	 */
+	public SupportingTransactions getSupportingTransactions(final Sequence join, final Occurrences left,
+			final Occurrences right) {
+		return getSupportingTransactions(join, Occurrences.join(left, right));
+	}
+
+	/**
+	 * Get the supporting transactions of given sequence among the
+	 * transactions with given sorted IDs (N.B. the IDs are overwritten)
+	 */
+	protected SupportingTransactions getSupportingTransactions(final Sequence seq, final int[] tids) {
+		final List<Transaction> transactions = getTransactionList();
+		final int[] reps = IntStream.range(0, tids.length).parallel()
+				.map(i -> transactions.get(tids[i]).repetitions(seq)).toArray();
+		int n = 0;
+		for (int i = 0; i < tids.length; i++) {
+			if (reps[i] > 0) {
+				tids[n] = tids[i];
+				reps[n++] = reps[i];
+			}
+		}
+		return new SupportingTransactions(Arrays.copyOf(tids, n), Arrays.copyOf(reps, n));
+	}
+
+	/**
+	 * Get the occurrence list of given sequence among the transactions with
+	 * given sorted IDs (N.B. the IDs are overwritten)
+	 */
+	protected Occurrences getOccurrences(final Sequence seq, final int[] tids) {
+		final List<Transaction> transactions = getTransactionList();
+		final int[] firstEnds = IntStream.range(0, tids.length).parallel()
+				.map(i -> transactions.get(tids[i]).firstOccurrenceEnd(seq)).toArray();
+		final int[] lastStarts = IntStream.range(0, tids.length).parallel()
+				.map(i -> firstEnds[i] >= 0 ? transactions.get(tids[i]).lastOccurrenceStart(seq) : -1).toArray();
+		int n = 0;
+		for (int i = 0; i < tids.length; i++) {
+			if (firstEnds[i] >= 0) {
+				tids[n] = tids[i];
+				firstEnds[n] = firstEnds[i];
+				lastStarts[n++] = lastStarts[i];
+			}
+		}
+		return new Occurrences(Arrays.copyOf(tids, n), Arrays.copyOf(firstEnds, n), Arrays.copyOf(lastStarts, n));
+	}
+
 }
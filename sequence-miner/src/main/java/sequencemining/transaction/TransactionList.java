@@ -1,14 +1,147 @@
 package sequencemining.transaction;
 
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.RandomAccess;
+import java.util.stream.IntStream;
+
+import com.google.common.collect.Table;
+
+import sequencemining.sequence.Sequence;
+import sequencemining.util.IntIntHashMap;
 
 /** Wrapper class for storing transaction database as a list of transactions */
 public class TransactionList extends TransactionDatabase {
 
-	private final List<Transaction> transactions;
+	/** No. of transactions per block */
+	static final int BLOCK_SIZE = 1 << 16;
+
+	/** Blocks of transactions (all but the last of the block size) */
+	private final TransactionBlock[] blocks;
+	private final int size;
+
+	/** Flyweight view of the transactions in the blocks */
+	private final List<Transaction> transactions = new TransactionView();
+
+	/**
+	 * Inverted index: sorted IDs of the transactions containing each of the
+	 * sorted distinct items
+	 */
+	private final int[] indexItems;
+	private final int[][] itemTransactions;
+
+	/** Initial probabilities of the singletons (null if not read along) */
+	private final Table<Sequence, Integer, Double> initialProbabilities;
 
 	public TransactionList(final List<Transaction> transactions) {
-		this.transactions = transactions;
+		this(transactions, null);
+	}
+
+	/**
+	 * Constructor
+	 * <p>
+	 * The items and caches of given transactions are copied into blocks, so
+	 * the transactions of this list are not the given ones.
+	 */
+	public TransactionList(final List<Transaction> transactions,
+			final Table<Sequence, Integer, Double> initialProbabilities) {
+		this(toBlocks(transactions), initialProbabilities);
+	}
+
+	TransactionList(final TransactionBlock[] blocks, final Table<Sequence, Integer, Double> initialProbabilities) {
+		this.blocks = blocks;
+		int noTransactions = 0;
+		for (final TransactionBlock block : blocks)
+			noTransactions += block.size();
+		this.size = noTransactions;
+		this.indexItems = getDistinctItems(blocks);
+		this.itemTransactions = buildItemIndex(blocks, indexItems);
+		this.initialProbabilities = initialProbabilities;
+	}
+
+	/**
+	 * Store given transactions in blocks, each holding the items of its
+	 * transactions in one contiguous arena (in list order), so scans over
+	 * them access memory sequentially without a separate array per
+	 * transaction
+	 */
+	private static TransactionBlock[] toBlocks(final List<Transaction> transactions) {
+		final TransactionBlock[] blocks = new TransactionBlock[(transactions.size() + BLOCK_SIZE - 1) / BLOCK_SIZE];
+		for (int k = 0; k < blocks.length; k++)
+			blocks[k] = TransactionBlock.of(
+					transactions.subList(k * BLOCK_SIZE, Math.min(transactions.size(), (k + 1) * BLOCK_SIZE)));
+		return blocks;
+	}
+
+	/** Get the sorted distinct (non-negative) items of the transactions in given blocks */
+	private static int[] getDistinctItems(final TransactionBlock[] blocks) {
+		final IntIntHashMap seen = new IntIntHashMap(-1);
+		int[] items = new int[64];
+		int noItems = 0;
+		for (final TransactionBlock block : blocks) {
+			final int[] arena = block.getItems();
+			final int end = block.getOffset(block.size());
+			for (int i = 0; i < end; i++) {
+				final int item = arena[i];
+				if (item < 0 || seen.containsKey(item))
+					continue;
+				seen.put(item, noItems);
+				if (noItems == items.length)
+					items = Arrays.copyOf(items, 2 * noItems);
+				items[noItems++] = item;
+			}
+		}
+		items = Arrays.copyOf(items, noItems);
+		Arrays.sort(items);
+		return items;
+	}
+
+	/**
+	 * Build item to transaction IDs index (transaction ID = list index), with
+	 * a posting list for each of given sorted items
+	 */
+	private static int[][] buildItemIndex(final TransactionBlock[] blocks, final int[] items) {
+		final IntIntHashMap keys = new IntIntHashMap(-1);
+		for (int k = 0; k < items.length; k++)
+			keys.put(items[k], k);
+
+		// Count transactions per item, then fill posting lists in order
+		final int[] counts = new int[items.length];
+		final int[] lastSeen = new int[items.length];
+		Arrays.fill(lastSeen, -1);
+		int tid = 0;
+		for (final TransactionBlock block : blocks) {
+			final int[] arena = block.getItems();
+			for (int slot = 0; slot < block.size(); slot++, tid++) {
+				for (int i = block.getOffset(slot); i < block.getOffset(slot + 1); i++) {
+					final int k = keys.get(arena[i]);
+					if (k >= 0 && lastSeen[k] != tid) {
+						lastSeen[k] = tid;
+						counts[k]++;
+					}
+				}
+			}
+		}
+		final int[][] index = new int[items.length][];
+		for (int k = 0; k < items.length; k++)
+			index[k] = new int[counts[k]];
+		Arrays.fill(counts, 0);
+		Arrays.fill(lastSeen, -1);
+		tid = 0;
+		for (final TransactionBlock block : blocks) {
+			final int[] arena = block.getItems();
+			for (int slot = 0; slot < block.size(); slot++, tid++) {
+				for (int i = block.getOffset(slot); i < block.getOffset(slot + 1); i++) {
+					final int k = keys.get(arena[i]);
+					if (k >= 0 && lastSeen[k] != tid) {
+						lastSeen[k] = tid;
+						index[k][counts[k]++] = tid;
+					}
+				}
+			}
+		}
+		return index;
 	}
 
 	@Override
@@ -21,9 +154,95 @@ public class TransactionList extends TransactionDatabase {
 	// throw new UnsupportedOperationException("This is a list is not a RDD!!");
 	// }
 
+	/**
+	 * Get the initial probabilities of the singletons if they were determined
+	 * while reading the transactions (null otherwise)
+	 */
+	public Table<Sequence, Integer, Double> getInitialProbabilities() {
+		return initialProbabilities;
+	}
+
 	@Override
 	public int size() {
-		return transactions.size();
+		return size;
+	}
+
+	/**
+	 * Get the IDs of transactions containing all items of given sequence, i.e.
+	 * the intersection of its items' posting lists (negative items are not
+	 * indexed so they do not narrow down the transactions)
+	 */
+	public int[] getTransactionsContainingItems(final Sequence seq) {
+		final int[][] postingLists = new int[seq.size()][];
+		int noLists = 0;
+		for (int i = 0; i < seq.size(); i++) {
+			final int item = seq.get(i);
+			if (item < 0)
+				continue;
+			final int k = Arrays.binarySearch(indexItems, item);
+			if (k < 0)
+				return new int[0];
+			postingLists[noLists++] = itemTransactions[k];
+		}
+		if (noLists == 0)
+			return IntStream.range(0, size).toArray();
+		// Intersect starting from the shortest posting list
+		int shortest = 0;
+		for (int i = 1; i < noLists; i++) {
+			if (postingLists[i].length < postingLists[shortest].length)
+				shortest = i;
+		}
+		int[] tids = postingLists[shortest];
+		int noTids = tids.length;
+		for (int i = 0; i < noLists && noTids > 0; i++) {
+			final int[] postings = postingLists[i];
+			if (postings == tids)
+				continue;
+			final int[] intersection = new int[noTids];
+			int n = 0;
+			int from = 0;
+			for (int j = 0; j < noTids; j++) {
+				final int k = Arrays.binarySearch(postings, from, postings.length, tids[j]);
+				if (k >= 0) {
+					intersection[n++] = tids[j];
+					from = k + 1;
+				} else {
+					from = -(k + 1);
+				}
+			}
+			tids = intersection;
+			noTids = n;
+		}
+		return Arrays.copyOf(tids, noTids);
+	}
+
+	@Override
+	public SupportingTransactions getSupportingTransactions(final Sequence seq) {
+		return getSupportingTransactions(seq, getTransactionsContainingItems(seq));
+	}
+
+	@Override
+	public Occurrences getOccurrences(final Sequence seq) {
+		return getOccurrences(seq, getTransactionsContainingItems(seq));
+	}
+
+	/**
+	 * Flyweight list view of the transactions (a new view of a block slot is
+	 * returned on every access)
+	 */
+	private class TransactionView extends AbstractList<Transaction> implements RandomAccess {
+
+		@Override
+		public Transaction get(final int index) {
+			if (index < 0 || index >= size)
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+			return blocks[index / BLOCK_SIZE].get(index % BLOCK_SIZE);
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
 	}
 
 	// @Override
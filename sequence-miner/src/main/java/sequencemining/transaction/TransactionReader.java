@@ -0,0 +1,346 @@
+package sequencemining.transaction;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+
+import sequencemining.sequence.Sequence;
+import sequencemining.util.IntIntHashMap;
+
+/**
+ * Parallel reader of transaction databases in SPMF format
+ * <p>
+ * The file is memory-mapped and split into chunks at line boundaries, which
+ * are parsed in parallel straight from bytes into item arrays. The occurrence
+ * counts of the singletons are gathered in the same pass, so the file only
+ * has to be read once, and items can be remapped (see {@link ItemMap}) before
+ * the transaction list is built.
+ */
+public class TransactionReader {
+
+	/** Bounds on the size of the chunks parsed in parallel */
+	private static final long MIN_CHUNK_BYTES = 1 << 20;
+	private static final long MAX_CHUNK_BYTES = 1 << 30;
+
+	/** Max. magnitude of an item (that of Integer.MIN_VALUE) */
+	private static final long MAX_ITEM_MAGNITUDE = -(long) Integer.MIN_VALUE;
+
+	private TransactionReader() {
+	}
+
+	/** Read transactions and the initial probabilities of their singletons */
+	public static TransactionList read(final File file) throws IOException {
+		return read(file, false);
+	}
+
+	/**
+	 * Read transactions and the initial probabilities of their singletons,
+	 * optionally remapping items to dense items in decreasing order of
+	 * frequency (using the map for output)
+	 */
+	public static TransactionList read(final File file, final boolean remapItems) throws IOException {
+		final List<Chunk> chunks = parse(file, true);
+		final Table<Sequence, Integer, Double> initProbs = getInitialProbabilities(chunks);
+		final ItemMap itemMap = remapItems ? ItemMap.rankedBy(initProbs) : null;
+		if (itemMap != null)
+			chunks.parallelStream().forEach(chunk -> chunk.remap(itemMap));
+		final TransactionList transactions = new TransactionList(toBlocks(chunks),
+				itemMap != null ? itemMap.toDense(initProbs) : initProbs);
+		transactions.setItemMap(itemMap);
+		return transactions;
+	}
+
+	/** Read the initial probabilities of the singletons only */
+	public static Table<Sequence, Integer, Double> readInitialProbabilities(final File file) throws IOException {
+		return getInitialProbabilities(parse(file, false));
+	}
+
+	/** Parse chunks of given file in parallel (in file order) */
+	private static List<Chunk> parse(final File file, final boolean keepTransactions) throws IOException {
+		try (final RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			final FileChannel channel = raf.getChannel();
+			final long[] bounds = getChunkBounds(channel);
+			return IntStream.range(0, bounds.length - 1).parallel().mapToObj(k -> {
+				try {
+					final MappedByteBuffer bytes = channel.map(MapMode.READ_ONLY, bounds[k], bounds[k + 1] - bounds[k]);
+					return new Chunk(bytes, keepTransactions);
+				} catch (final IOException e) {
+					throw new IllegalStateException("Failed to map " + file, e);
+				}
+			}).collect(Collectors.toList());
+		}
+	}
+
+	/** Split the file into chunks ending at line boundaries */
+	private static long[] getChunkBounds(final FileChannel channel) throws IOException {
+		final long length = channel.size();
+		final long chunkBytes = Math.min(MAX_CHUNK_BYTES,
+				Math.max(MIN_CHUNK_BYTES, length / (4 * Runtime.getRuntime().availableProcessors())));
+		final List<Long> bounds = new ArrayList<>();
+		bounds.add(0L);
+		final ByteBuffer buffer = ByteBuffer.allocate(8192);
+		long pos = chunkBytes;
+		while (pos < length) {
+			// Advance to the next line
+			long next = -1;
+			for (long from = pos; next < 0 && from < length; from += buffer.limit()) {
+				buffer.clear();
+				channel.read(buffer, from);
+				buffer.flip();
+				for (int i = 0; i < buffer.limit(); i++) {
+					if (buffer.get(i) == '\n') {
+						next = from + i + 1;
+						break;
+					}
+				}
+			}
+			if (next < 0 || next >= length)
+				break;
+			bounds.add(next);
+			pos = next + chunkBytes;
+		}
+		bounds.add(length);
+		return bounds.stream().mapToLong(Long::longValue).toArray();
+	}
+
+	/** Transactions and singleton occurrence counts of a chunk */
+	private static class Chunk {
+		private int noTransactions = 0;
+
+		/** Items of all transactions (if kept) and the length of each */
+		private int[] transactionItems = new int[1024];
+		private int noTransactionItems = 0;
+		private int[] transactionLengths = new int[64];
+
+		/** Slots of the items (in order of first appearance) */
+		private final IntIntHashMap slots = new IntIntHashMap(-1);
+		private int[] items = new int[16];
+		private int noItems = 0;
+
+		/** No. of transactions containing each item once, twice, etc. (by slot) */
+		private int[][] histograms = new int[16][];
+
+		/** Scratch occurrence counts (by slot) and slots of the current transaction */
+		private int[] counts = new int[16];
+		private int[] transactionSlots = new int[64];
+
+		private Chunk(final ByteBuffer bytes, final boolean keepTransactions) {
+			int[] transaction = new int[64];
+			int length = 0;
+			int pos = 0;
+			final int end = bytes.limit();
+			while (pos < end) {
+				// Skip empty lines, comments and metadata
+				final byte first = bytes.get(pos);
+				if (first == '\n' || first == '\r' || first == '#' || first == '%' || first == '@') {
+					while (pos < end && bytes.get(pos) != '\n')
+						pos++;
+					pos++;
+					continue;
+				}
+
+				// Parse items until the end of sequence tag
+				boolean complete = false;
+				length = 0;
+				while (pos < end && bytes.get(pos) != '\n') {
+					byte b = bytes.get(pos);
+					if (b == ' ' || b == '\r') {
+						pos++;
+						continue;
+					}
+					final boolean negative = b == '-';
+					if (negative)
+						b = bytes.get(++pos);
+					long value = 0;
+					while (b >= '0' && b <= '9') {
+						value = 10 * value + (b - '0');
+						if (value > MAX_ITEM_MAGNITUDE)
+							throw new NumberFormatException("Item out of int range in sequence database");
+						b = ++pos < end ? bytes.get(pos) : (byte) '\n';
+					}
+					if (b != ' ' && b != '\r' && b != '\n')
+						throw new NumberFormatException("Invalid item in sequence database: " + (char) b);
+					if (!negative && value > Integer.MAX_VALUE)
+						throw new NumberFormatException("Item out of int range in sequence database: " + value);
+					final int item = (int) (negative ? -value : value);
+					if (item == -1 || complete) { // end of item
+						continue;
+					} else if (item == -2) { // end of sequence
+						complete = true;
+					} else {
+						if (length == transaction.length)
+							transaction = Arrays.copyOf(transaction, 2 * length);
+						transaction[length++] = item;
+					}
+				}
+				pos++;
+				if (!complete)
+					throw new RuntimeException("Corrupt sequence database.");
+
+				count(transaction, length);
+				if (keepTransactions)
+					add(transaction, length);
+				noTransactions++;
+			}
+		}
+
+		/** Append given transaction to the items of this chunk */
+		private void add(final int[] transaction, final int length) {
+			if (noTransactionItems + length > transactionItems.length) // chunks are well below 2GB
+				transactionItems = Arrays.copyOf(transactionItems,
+						Math.max(2 * transactionItems.length, noTransactionItems + length));
+			System.arraycopy(transaction, 0, transactionItems, noTransactionItems, length);
+			noTransactionItems += length;
+			if (noTransactions == transactionLengths.length)
+				transactionLengths = Arrays.copyOf(transactionLengths, 2 * noTransactions);
+			transactionLengths[noTransactions] = length;
+		}
+
+		/** Remap the items of the transactions in this chunk */
+		private void remap(final ItemMap itemMap) {
+			for (int i = 0; i < noTransactionItems; i++)
+				transactionItems[i] = itemMap.toDense(transactionItems[i]);
+		}
+
+		/** Count the singleton occurrences in given transaction */
+		private void count(final int[] transaction, final int length) {
+			if (length > transactionSlots.length)
+				transactionSlots = new int[length];
+			for (int i = 0; i < length; i++) {
+				final int item = transaction[i];
+				if (item < 0) { // not a valid singleton
+					transactionSlots[i] = -1;
+					continue;
+				}
+				int slot = slots.get(item);
+				if (slot < 0) {
+					if (noItems == items.length) {
+						items = Arrays.copyOf(items, 2 * noItems);
+						histograms = Arrays.copyOf(histograms, 2 * noItems);
+						counts = Arrays.copyOf(counts, 2 * noItems);
+					}
+					slot = noItems++;
+					slots.put(item, slot);
+					items[slot] = item;
+					histograms[slot] = new int[2];
+				}
+				transactionSlots[i] = slot;
+				counts[slot]++;
+			}
+			for (int i = 0; i < length; i++) {
+				final int slot = transactionSlots[i];
+				if (slot < 0 || counts[slot] == 0)
+					continue;
+				final int occur = counts[slot];
+				if (occur >= histograms[slot].length)
+					histograms[slot] = Arrays.copyOf(histograms[slot], occur + 1);
+				histograms[slot][occur]++;
+				counts[slot] = 0;
+			}
+		}
+	}
+
+	/**
+	 * Copy the transactions of given chunks (in order) into blocks of a
+	 * transaction list, releasing the items of each chunk once copied
+	 */
+	private static TransactionBlock[] toBlocks(final List<Chunk> chunks) {
+		int noTransactions = 0;
+		for (final Chunk chunk : chunks)
+			noTransactions += chunk.noTransactions;
+		final int blockSize = TransactionList.BLOCK_SIZE;
+		final TransactionBlock[] blocks = new TransactionBlock[(noTransactions + blockSize - 1) / blockSize];
+		int lengthChunk = 0; // position of the next transaction length
+		int lengthPos = 0;
+		int itemChunk = 0; // position of the next item
+		int itemPos = 0;
+		for (int k = 0; k < blocks.length; k++) {
+			final int[] offsets = new int[Math.min(blockSize, noTransactions - k * blockSize) + 1];
+			long noItems = 0;
+			for (int i = 1; i < offsets.length; i++, lengthPos++) {
+				while (lengthPos == chunks.get(lengthChunk).noTransactions) {
+					lengthChunk++;
+					lengthPos = 0;
+				}
+				noItems += chunks.get(lengthChunk).transactionLengths[lengthPos];
+				if (noItems > Integer.MAX_VALUE - 8)
+					throw new IllegalStateException("Too many items for one block: " + noItems);
+				offsets[i] = (int) noItems;
+			}
+			final int[] items = new int[offsets[offsets.length - 1]];
+			for (int pos = 0; pos < items.length;) {
+				final Chunk chunk = chunks.get(itemChunk);
+				final int n = Math.min(items.length - pos, chunk.noTransactionItems - itemPos);
+				System.arraycopy(chunk.transactionItems, itemPos, items, pos, n);
+				pos += n;
+				itemPos += n;
+				if (itemPos == chunk.noTransactionItems) {
+					chunk.transactionItems = null;
+					itemChunk++;
+					itemPos = 0;
+				}
+			}
+			blocks[k] = new TransactionBlock(items, offsets);
+		}
+		return blocks;
+	}
+
+	/**
+	 * Merge the singleton occurrence counts of the chunks into probabilities,
+	 * i.e. the fraction of transactions containing each item a given number of
+	 * times (with items in order of first appearance)
+	 */
+	private static Table<Sequence, Integer, Double> getInitialProbabilities(final List<Chunk> chunks) {
+		int noTransactions = 0;
+		for (final Chunk chunk : chunks)
+			noTransactions += chunk.noTransactions;
+		final IntIntHashMap slots = new IntIntHashMap(-1);
+		final List<int[]> histograms = new ArrayList<>();
+		final List<Integer> items = new ArrayList<>();
+		for (final Chunk chunk : chunks) {
+			for (int i = 0; i < chunk.noItems; i++) {
+				final int item = chunk.items[i];
+				final int[] histogram = chunk.histograms[i];
+				final int slot = slots.get(item);
+				if (slot < 0) {
+					slots.put(item, histograms.size());
+					histograms.add(histogram.clone());
+					items.add(item);
+					continue;
+				}
+				final int[] merged = histograms.get(slot).length < histogram.length
+						? Arrays.copyOf(histograms.get(slot), histogram.length) : histograms.get(slot);
+				for (int occur = 1; occur < histogram.length; occur++)
+					merged[occur] += histogram[occur];
+				histograms.set(slot, merged);
+			}
+		}
+
+		final double noTrans = noTransactions;
+		final Table<Sequence, Integer, Double> probabilities = HashBasedTable.create();
+		for (int i = 0; i < items.size(); i++) {
+			final int[] histogram = histograms.get(i);
+			final Sequence seq = new Sequence(items.get(i));
+			int noContaining = 0;
+			for (int occur = 1; occur < histogram.length; occur++) {
+				probabilities.put(seq, occur, histogram[occur] / noTrans);
+				noContaining += histogram[occur];
+			}
+			probabilities.put(seq, 0, (noTrans - noContaining) / noTrans);
+		}
+		return probabilities;
+	}
+
+}
@@ -0,0 +1,38 @@
+package sequencemining.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.io.LineIterator;
+
+import sequencemining.main.SequenceMining;
+import sequencemining.transaction.BinaryTransactionList;
+
+/**
+ * Convert a transaction database in SPMF format to the binary format that is
+ * read by {@link BinaryTransactionList} (and can be passed to the miner in
+ * its place).
+ */
+public class DatasetConverter {
+
+	public static void main(final String[] args) throws IOException {
+		if (args.length != 2) {
+			System.err.println("Usage <transactionDB> <binaryDB>");
+			System.exit(-1);
+		}
+
+		System.out.println("Converting " + args[0] + " to " + args[1] + "...");
+		try (final BufferedReader reader = new BufferedReader(
+				new InputStreamReader(new FileInputStream(args[0]), StandardCharsets.UTF_8))) {
+			final int noTransactions = BinaryTransactionList
+					.write(SequenceMining.transactionIterator(new LineIterator(reader)), new File(args[1]));
+			System.out.println("done. Number of transactions: " + noTransactions);
+		}
+
+	}
+
+}
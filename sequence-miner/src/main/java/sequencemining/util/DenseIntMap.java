@@ -0,0 +1,40 @@
+package sequencemining.util;
+
+import java.util.Arrays;
+
+/** Growable map from dense non-negative int keys to int values */
+public class DenseIntMap {
+
+	private final int missingValue;
+	private int[] values;
+
+	/**
+	 * Constructor
+	 *
+	 * @param missingValue
+	 *            value returned for keys that have not been set
+	 */
+	public DenseIntMap(final int missingValue) {
+		this.missingValue = missingValue;
+		this.values = new int[64];
+		Arrays.fill(values, missingValue);
+	}
+
+	public int get(final int key) {
+		return key < values.length ? values[key] : missingValue;
+	}
+
+	public boolean containsKey(final int key) {
+		return get(key) != missingValue;
+	}
+
+	public void put(final int key, final int value) {
+		if (key >= values.length) {
+			final int oldLength = values.length;
+			values = Arrays.copyOf(values, Math.max(2 * oldLength, key + 1));
+			Arrays.fill(values, oldLength, values.length, missingValue);
+		}
+		values[key] = value;
+	}
+
+}
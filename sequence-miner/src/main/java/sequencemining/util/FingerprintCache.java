@@ -0,0 +1,128 @@
+package sequencemining.util;
+
+/**
+ * Size-bounded map from 64-bit fingerprints to int values
+ * <p>
+ * Entries are stored in parallel primitive arrays and looked up in a short
+ * probe window starting at the fingerprint's hash slot. The arrays grow as
+ * entries are added until they reach the max. size, after which the entry at
+ * a rotating position within a full window is evicted, so the map never
+ * holds more than its max. size.
+ */
+public class FingerprintCache {
+
+	private static final int PROBE_WINDOW = 8;
+
+	private long[] keys;
+	private int[] values;
+	private int mask;
+	private final int maxCapacity;
+	private final int missingValue;
+
+	private int size = 0;
+	private int victim = 0;
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	/**
+	 * Constructor
+	 *
+	 * @param maxSize
+	 *            max. no. of entries (rounded up to a power of two)
+	 * @param missingValue
+	 *            value returned for keys that are not cached
+	 */
+	public FingerprintCache(final int maxSize, final int missingValue) {
+		this.maxCapacity = Integer.highestOneBit(Math.max(PROBE_WINDOW, maxSize - 1)) << 1;
+		this.missingValue = missingValue;
+		resize(Math.min(1024, maxCapacity));
+	}
+
+	/** Get the value cached for given fingerprint (or the missing value) */
+	public int get(final long fingerprint) {
+		final long key = nonZero(fingerprint);
+		final int start = LongHashSet.mix(key) & mask;
+		for (int p = 0; p < PROBE_WINDOW; p++) {
+			final int i = (start + p) & mask;
+			if (keys[i] == key) {
+				hits++;
+				return values[i];
+			}
+			if (keys[i] == 0)
+				break;
+		}
+		misses++;
+		return missingValue;
+	}
+
+	/** Cache given value for given fingerprint, evicting if necessary */
+	public void put(final long fingerprint, final int value) {
+		if (2 * size >= keys.length && keys.length < maxCapacity)
+			resize(2 * keys.length);
+		final long key = nonZero(fingerprint);
+		final int start = LongHashSet.mix(key) & mask;
+		for (int p = 0; p < PROBE_WINDOW; p++) {
+			final int i = (start + p) & mask;
+			if (keys[i] == key || keys[i] == 0) {
+				if (keys[i] == 0)
+					size++;
+				keys[i] = key;
+				values[i] = value;
+				return;
+			}
+		}
+		if (keys.length < maxCapacity) { // grow rather than evict
+			resize(2 * keys.length);
+			put(fingerprint, value);
+			return;
+		}
+		final int i = (start + victim) & mask;
+		victim = (victim + 1) % PROBE_WINDOW;
+		keys[i] = key;
+		values[i] = value;
+		evictions++;
+	}
+
+	private void resize(final int capacity) {
+		final long[] oldKeys = keys;
+		final int[] oldValues = values;
+		keys = new long[capacity];
+		values = new int[capacity];
+		mask = capacity - 1;
+		size = 0;
+		if (oldKeys != null) {
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldKeys[i] != 0)
+					put(oldKeys[i], oldValues[i]);
+			}
+		}
+	}
+
+	/** Zero marks empty slots so map it to another fingerprint */
+	private static long nonZero(final long fingerprint) {
+		return fingerprint == 0 ? 1 : fingerprint;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/** Approximate resident size of this cache in bytes */
+	public long residentBytes() {
+		return 12L * keys.length;
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	public long getEvictions() {
+		return evictions;
+	}
+
+}
@@ -0,0 +1,98 @@
+package sequencemining.util;
+
+/**
+ * Open-addressing hash map from ints to ints (e.g. from sparse items to dense
+ * slots)
+ * <p>
+ * Uses linear probing over a power-of-two table, the key zero is stored out of
+ * band.
+ */
+public class IntIntHashMap {
+
+	private static final double MAX_LOAD = 0.5;
+
+	private final int missingValue;
+	private int[] keys = new int[64];
+	private int[] values = new int[64];
+	private int size = 0;
+	private boolean containsZero = false;
+	private int zeroValue;
+
+	/**
+	 * Constructor
+	 *
+	 * @param missingValue
+	 *            value returned for keys that are not contained
+	 */
+	public IntIntHashMap(final int missingValue) {
+		this.missingValue = missingValue;
+	}
+
+	/** Get the value for given key (or the missing value) */
+	public int get(final int key) {
+		if (key == 0)
+			return containsZero ? zeroValue : missingValue;
+		final int mask = keys.length - 1;
+		for (int i = LongHashSet.mix(key) & mask;; i = (i + 1) & mask) {
+			if (keys[i] == key)
+				return values[i];
+			if (keys[i] == 0)
+				return missingValue;
+		}
+	}
+
+	public boolean containsKey(final int key) {
+		return get(key) != missingValue;
+	}
+
+	/** Put given value for given key, replacing any previous value */
+	public void put(final int key, final int value) {
+		if (key == 0) {
+			containsZero = true;
+			zeroValue = value;
+			return;
+		}
+		if (size + 1 > MAX_LOAD * keys.length)
+			rehash(2 * keys.length);
+		final int mask = keys.length - 1;
+		for (int i = LongHashSet.mix(key) & mask;; i = (i + 1) & mask) {
+			if (keys[i] == key) {
+				values[i] = value;
+				return;
+			}
+			if (keys[i] == 0) {
+				keys[i] = key;
+				values[i] = value;
+				size++;
+				return;
+			}
+		}
+	}
+
+	private void rehash(final int capacity) {
+		final int[] oldKeys = keys;
+		final int[] oldValues = values;
+		keys = new int[capacity];
+		values = new int[capacity];
+		final int mask = capacity - 1;
+		for (int j = 0; j < oldKeys.length; j++) {
+			if (oldKeys[j] != 0) {
+				int i = LongHashSet.mix(oldKeys[j]) & mask;
+				while (keys[i] != 0)
+					i = (i + 1) & mask;
+				keys[i] = oldKeys[j];
+				values[i] = oldValues[j];
+			}
+		}
+	}
+
+	public int size() {
+		return containsZero ? size + 1 : size;
+	}
+
+	/** Approximate resident size of this map in bytes */
+	public long residentBytes() {
+		return 8L * keys.length;
+	}
+
+}
@@ -0,0 +1,81 @@
+package sequencemining.util;
+
+/**
+ * Open-addressing hash set of longs (e.g. 64-bit sequence fingerprints)
+ * <p>
+ * Uses linear probing over a power-of-two table, zero is stored out of band.
+ */
+public class LongHashSet {
+
+	private static final double MAX_LOAD = 0.5;
+
+	private long[] keys = new long[64];
+	private int size = 0;
+	private boolean containsZero = false;
+
+	/**
+	 * Add given key to the set
+	 *
+	 * @return true if it was not already contained
+	 */
+	public boolean add(final long key) {
+		if (key == 0) {
+			final boolean added = !containsZero;
+			containsZero = true;
+			return added;
+		}
+		if (size + 1 > MAX_LOAD * keys.length)
+			rehash(2 * keys.length);
+		final int mask = keys.length - 1;
+		for (int i = mix(key) & mask;; i = (i + 1) & mask) {
+			if (keys[i] == key)
+				return false;
+			if (keys[i] == 0) {
+				keys[i] = key;
+				size++;
+				return true;
+			}
+		}
+	}
+
+	public boolean contains(final long key) {
+		if (key == 0)
+			return containsZero;
+		final int mask = keys.length - 1;
+		for (int i = mix(key) & mask;; i = (i + 1) & mask) {
+			if (keys[i] == key)
+				return true;
+			if (keys[i] == 0)
+				return false;
+		}
+	}
+
+	private void rehash(final int capacity) {
+		final long[] oldKeys = keys;
+		keys = new long[capacity];
+		final int mask = capacity - 1;
+		for (final long key : oldKeys) {
+			if (key != 0) {
+				int i = mix(key) & mask;
+				while (keys[i] != 0)
+					i = (i + 1) & mask;
+				keys[i] = key;
+			}
+		}
+	}
+
+	static int mix(final long key) {
+		final long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	public int size() {
+		return containsZero ? size + 1 : size;
+	}
+
+	/** Approximate resident size of this set in bytes */
+	public long residentBytes() {
+		return 8L * keys.length;
+	}
+
+}
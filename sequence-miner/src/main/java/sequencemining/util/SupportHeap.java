@@ -0,0 +1,102 @@
+package sequencemining.util;
+
+import java.util.Arrays;
+
+/**
+ * Binary max-heap of (support, ID) pairs stored in parallel primitive arrays
+ * <p>
+ * Entries with higher support come first, ties are broken by the given
+ * comparison of IDs.
+ */
+public class SupportHeap {
+
+	/** Comparison of IDs with equal support (negative if id1 comes first) */
+	public interface TieBreak {
+		int compare(int id1, int id2);
+	}
+
+	private final TieBreak tieBreak;
+	private int[] supports;
+	private int[] ids;
+	private int size = 0;
+
+	/**
+	 * Constructor
+	 *
+	 * @param tieBreak
+	 *            comparison of IDs with equal support
+	 */
+	public SupportHeap(final TieBreak tieBreak) {
+		this.tieBreak = tieBreak;
+		this.supports = new int[64];
+		this.ids = new int[64];
+	}
+
+	/** Add given ID with given support */
+	public void add(final int id, final int support) {
+		if (size == ids.length) {
+			supports = Arrays.copyOf(supports, 2 * size);
+			ids = Arrays.copyOf(ids, 2 * size);
+		}
+		// Sift up
+		int i = size++;
+		while (i > 0) {
+			final int parent = (i - 1) >>> 1;
+			if (!before(support, id, supports[parent], ids[parent]))
+				break;
+			supports[i] = supports[parent];
+			ids[i] = ids[parent];
+			i = parent;
+		}
+		supports[i] = support;
+		ids[i] = id;
+	}
+
+	/**
+	 * Remove the first ID
+	 *
+	 * @return the ID or -1 if the heap is empty
+	 */
+	public int poll() {
+		if (size == 0)
+			return -1;
+		final int first = ids[0];
+		final int support = supports[--size];
+		final int id = ids[size];
+		// Sift down
+		int i = 0;
+		for (int child; (child = 2 * i + 1) < size;) {
+			if (child + 1 < size && before(supports[child + 1], ids[child + 1], supports[child], ids[child]))
+				child++;
+			if (!before(supports[child], ids[child], support, id))
+				break;
+			supports[i] = supports[child];
+			ids[i] = ids[child];
+			i = child;
+		}
+		supports[i] = support;
+		ids[i] = id;
+		return first;
+	}
+
+	/** Remove all IDs */
+	public void clear() {
+		size = 0;
+	}
+
+	/** Check if (support1, id1) comes strictly before (support2, id2) */
+	private boolean before(final int support1, final int id1, final int support2, final int id2) {
+		if (support1 != support2)
+			return support1 > support2;
+		return tieBreak.compare(id1, id2) < 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+}
@@ -0,0 +1,123 @@
+package sequencemining.main;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+
+import sequencemining.sequence.Sequence;
+import sequencemining.transaction.SegmentedTransactionDatabase;
+import sequencemining.transaction.TransactionDatabase;
+import sequencemining.transaction.TransactionList;
+
+public class CandidateGeneratorTest {
+
+	@Test
+	public void testCandidatesMatchEnumeration() throws IOException {
+
+		final File input = getTestFile("TOY.txt"); // database
+		final TransactionList transactions = SequenceMining.readTransactions(input);
+		checkCandidatesMatchEnumeration(transactions, transactions.getInitialProbabilities());
+	}
+
+	@Test
+	public void testOutOfCoreCandidatesMatchEnumeration() throws IOException {
+
+		final File input = getTestFile("TOY.txt"); // database
+		final Table<Sequence, Integer, Double> initProbs = SequenceMining.readTransactions(input)
+				.getInitialProbabilities();
+		try (final SegmentedTransactionDatabase transactions = SequenceMining.readSegmentedTransactions(input, 2)) {
+			checkCandidatesMatchEnumeration(transactions, initProbs);
+		}
+	}
+
+	private static void checkCandidatesMatchEnumeration(final TransactionDatabase transactions,
+			final Table<Sequence, Integer, Double> initProbs) {
+		final Table<Sequence, Integer, Double> model = HashBasedTable.create(initProbs);
+		final CandidateGenerator generator = new CandidateGenerator(transactions, model, Integer::compare, 1000);
+		final Set<Sequence> evaluated = new HashSet<>();
+
+		// Partial enumeration, then all joins of the initial model
+		generator.fill(3);
+		assertEquals(3, generator.size());
+		generator.fill(Integer.MAX_VALUE);
+		assertEquals(getJoins(transactions, model, evaluated), getQueued(generator, transactions));
+
+		// Accept one candidate and reject another
+		final int accepted = generator.poll();
+		final Sequence acceptedSeq = transactions.getDictionary().getSequence(accepted);
+		generator.reject(accepted);
+		evaluated.add(acceptedSeq);
+		final int rejected = generator.poll();
+		evaluated.add(transactions.getDictionary().getSequence(rejected));
+		generator.reject(rejected);
+		generator.release(rejected);
+
+		// Joins of a removed sequence are dropped, joins of an added one queued
+		final Sequence removed = acceptedSeq.get(0) == 3 ? new Sequence(1) : new Sequence(3);
+		model.rowMap().remove(removed);
+		model.put(acceptedSeq, 0, 0.5);
+		model.put(acceptedSeq, 1, 0.5);
+		generator.update(model);
+		generator.fill(Integer.MAX_VALUE);
+		assertEquals(getJoins(transactions, model, evaluated), getQueued(generator, transactions));
+
+		// Joins of a re-added sequence are queued again
+		model.put(removed, 0, 0.5);
+		model.put(removed, 1, 0.5);
+		generator.update(model);
+		generator.fill(Integer.MAX_VALUE);
+		assertEquals(getJoins(transactions, model, evaluated), getQueued(generator, transactions));
+	}
+
+	/** Supported joins of distinct model sequences that were not evaluated */
+	private static Set<Sequence> getJoins(final TransactionDatabase transactions,
+			final Table<Sequence, Integer, Double> model, final Set<Sequence> evaluated) {
+		final Set<Sequence> joins = new HashSet<>();
+		for (final Sequence seq1 : model.rowKeySet()) {
+			for (final Sequence seq2 : model.rowKeySet()) {
+				final Sequence join = new Sequence(seq1, seq2);
+				if (!seq1.equals(seq2) && !evaluated.contains(join)
+						&& transactions.getSupportingTransactions(join).size() > 0)
+					joins.add(join);
+			}
+		}
+		return joins;
+	}
+
+	/** Drain the queue of given generator and put the candidates back */
+	private static Set<Sequence> getQueued(final CandidateGenerator generator,
+			final TransactionDatabase transactions) {
+		final List<Integer> candIds = new ArrayList<>();
+		for (Integer candId; (candId = generator.poll()) != null;) {
+			final Sequence cand = transactions.getDictionary().getSequence(candId);
+			assertEquals(transactions.getSupportingTransactions(cand).size(),
+					generator.getSupportingTransactions(candId).size());
+			candIds.add(candId);
+		}
+		final Set<Sequence> queued = new HashSet<>();
+		for (final int candId : candIds) {
+			queued.add(transactions.getDictionary().getSequence(candId));
+			generator.requeue(candId);
+		}
+		assertEquals(candIds.size(), queued.size());
+		return queued;
+	}
+
+	public File getTestFile(final String filename) throws UnsupportedEncodingException {
+		final URL url = this.getClass().getClassLoader().getResource(filename);
+		return new File(java.net.URLDecoder.decode(url.getPath(), "UTF-8"));
+	}
+
+}
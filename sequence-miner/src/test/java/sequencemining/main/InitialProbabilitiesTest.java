@@ -1,7 +1,13 @@
 package sequencemining.main;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 import java.net.URL;
 
@@ -10,6 +16,8 @@ import org.junit.Test;
 import com.google.common.collect.Table;
 
 import sequencemining.sequence.Sequence;
+import sequencemining.transaction.BinaryTransactionList;
+import sequencemining.transaction.TransactionList;
 
 public class InitialProbabilitiesTest {
 
@@ -23,6 +31,77 @@ public class InitialProbabilitiesTest {
 
 	}
 
+	@Test
+	public void testBinaryDataset() throws IOException {
+
+		final File input = getTestFile("TOY.txt"); // database
+		final File binary = File.createTempFile("TOY", ".bin");
+		binary.deleteOnExit();
+		final TransactionList transactions = SequenceMining.readTransactions(input);
+		BinaryTransactionList.write(transactions.getTransactionList().iterator(), binary);
+		assertFalse(BinaryTransactionList.isBinary(input));
+		assertTrue(BinaryTransactionList.isBinary(binary));
+
+		final TransactionList fromBinary = SequenceMining.readTransactions(binary);
+		assertEquals(transactions.getTransactionList(), fromBinary.getTransactionList());
+		assertEquals(SequenceMining.scanDatabaseToDetermineInitialProbabilities(input),
+				SequenceMining.scanDatabaseToDetermineInitialProbabilities(binary));
+
+		// Items are remapped in the same way
+		final TransactionList dense = SequenceMining.readTransactions(input, true);
+		final TransactionList denseFromBinary = SequenceMining.readTransactions(binary, true);
+		assertArrayEquals(dense.getItemMap().getLabels(), denseFromBinary.getItemMap().getLabels());
+		assertEquals(dense.getTransactionList(), denseFromBinary.getTransactionList());
+		assertEquals(dense.getInitialProbabilities(), denseFromBinary.getInitialProbabilities());
+
+		// Negative items are not singletons in either format
+		final File negative = writeTempFile("5 -1 -7 -1 5 -1 -2", "5 -1 -2");
+		final File negativeBinary = File.createTempFile("negative", ".bin");
+		negativeBinary.deleteOnExit();
+		BinaryTransactionList.write(SequenceMining.readTransactions(negative).getTransactionList().iterator(),
+				negativeBinary);
+		final Table<Sequence, Integer, Double> negativeProbs = SequenceMining
+				.scanDatabaseToDetermineInitialProbabilities(negative);
+		assertEquals(1, negativeProbs.rowKeySet().size());
+		assertEquals(negativeProbs, SequenceMining.scanDatabaseToDetermineInitialProbabilities(negativeBinary));
+		assertEquals(SequenceMining.readTransactions(negative, true).getTransactionList(),
+				SequenceMining.readTransactions(negativeBinary, true).getTransactionList());
+
+	}
+
+	@Test
+	public void testSparseItems() throws IOException {
+
+		final File input = writeTempFile("2147483647 -1 -2147483648 -1 7 -1 7 -1 -2", "7 -1 -2");
+		final TransactionList transactions = SequenceMining.readTransactions(input);
+		assertEquals(new Sequence(Integer.MAX_VALUE, Integer.MIN_VALUE, 7, 7),
+				transactions.getTransactionList().get(0));
+
+		// Negative items are not singletons
+		final Table<Sequence, Integer, Double> probs = transactions.getInitialProbabilities();
+		assertEquals(2, probs.rowKeySet().size());
+		assertEquals(0.5, probs.get(new Sequence(Integer.MAX_VALUE), 0), 0);
+		assertEquals(0.5, probs.get(new Sequence(Integer.MAX_VALUE), 1), 0);
+		assertEquals(0.0, probs.get(new Sequence(7), 0), 0);
+		assertEquals(0.5, probs.get(new Sequence(7), 1), 0);
+		assertEquals(0.5, probs.get(new Sequence(7), 2), 0);
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void testItemOutOfRange() throws IOException {
+		SequenceMining.readTransactions(writeTempFile("2147483648 -1 -2"));
+	}
+
+	private static File writeTempFile(final String... lines) throws IOException {
+		final File file = File.createTempFile("items", ".txt");
+		file.deleteOnExit();
+		try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+			for (final String line : lines)
+				out.println(line);
+		}
+		return file;
+	}
+
 	public File getTestFile(final String filename) throws UnsupportedEncodingException {
 		final URL url = this.getClass().getClassLoader().getResource(filename);
 		return new File(java.net.URLDecoder.decode(url.getPath(), "UTF-8"));
@@ -12,8 +12,11 @@ import com.google.common.collect.HashMultiset;
 import com.google.common.collect.Multiset;
 
 import sequencemining.main.InferenceAlgorithms.InferGreedy;
+import sequencemining.main.InferenceAlgorithms.InferLazyGreedy;
 import sequencemining.main.InferenceAlgorithms.InferenceAlgorithm;
 import sequencemining.sequence.Sequence;
+import sequencemining.sequence.SequenceDictionary;
+import sequencemining.transaction.Covering;
 import sequencemining.transaction.Transaction;
 
 public class SequenceMiningTest {
@@ -58,9 +61,11 @@ public class SequenceMiningTest {
 
 		// Test greedy
 		final InferenceAlgorithm inferGreedy = new InferGreedy();
-		final Multiset<Sequence> actual = inferGreedy.infer(transaction1);
+		final SequenceDictionary dictionary1 = transaction1.getCachedProbabilities().getDictionary();
+		final Multiset<Sequence> actual = inferGreedy.infer(transaction1).toMultiset(dictionary1);
 		System.out.println(actual);
 		assertEquals(expected1, actual);
+		assertEquals(expected1, new InferLazyGreedy().infer(transaction1).toMultiset(dictionary1));
 		// assertTrue(order1.containsAll(actual.values()));
 
 		// Subsequences
@@ -93,11 +98,14 @@ public class SequenceMiningTest {
 		}
 
 		// Test greedy
-		final Multiset<Sequence> actual2 = inferGreedy.infer(transaction2);
+		final SequenceDictionary dictionary2 = transaction2.getCachedProbabilities().getDictionary();
+		final Covering covering2 = inferGreedy.infer(transaction2);
+		final Multiset<Sequence> actual2 = covering2.toMultiset(dictionary2);
 		System.out.println(actual2);
 		assertEquals(expected2, actual2);
+		assertEquals(expected2, new InferLazyGreedy().infer(transaction2).toMultiset(dictionary2));
 		// assertTrue(order2.containsAll(actual2.values()));
-		transaction2.setCachedCovering(actual2);
+		transaction2.setCachedCovering(covering2);
 		assertEquals(expectedCost2, transaction2.getCachedCost(), 1e-15);
 
 	}
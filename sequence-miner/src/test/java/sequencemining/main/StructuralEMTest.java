@@ -0,0 +1,204 @@
+package sequencemining.main;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.URL;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+
+import sequencemining.main.EMStep.CandidateEvaluation;
+import sequencemining.main.InferenceAlgorithms.InferGreedy;
+import sequencemining.main.InferenceAlgorithms.InferenceAlgorithm;
+import sequencemining.sequence.Sequence;
+import sequencemining.transaction.CoveringCounts;
+import sequencemining.transaction.CoveringCounts.Refit;
+import sequencemining.transaction.ProbabilityTable;
+import sequencemining.transaction.SupportingTransactions;
+import sequencemining.transaction.Transaction;
+import sequencemining.transaction.TransactionList;
+
+public class StructuralEMTest {
+
+	@Test
+	public void testCostCounts() throws IOException {
+
+		final File input = getTestFile("TOY.txt"); // database
+		final TransactionList transactions = SequenceMining.readTransactions(input);
+		final Table<Sequence, Integer, Double> model = HashBasedTable.create(transactions.getInitialProbabilities());
+		final InferenceAlgorithm inferenceAlgorithm = new InferGreedy();
+		EMStep.initializeCachedSequences(transactions, model);
+		EMStep.hardEMStep(transactions, inferenceAlgorithm);
+
+		// Cost from the counts is the sum of the transaction costs
+		final ProbabilityTable probabilities = transactions.getCachedProbabilities();
+		final CoveringCounts counts = new CoveringCounts();
+		double cost = 0;
+		for (final Transaction t : transactions.getTransactionList()) {
+			t.addCachedCostCounts(counts, 1);
+			cost += t.getCost(probabilities, probabilities, t.getCachedSequenceIds(), t.getCachedCovering());
+		}
+		assertEquals(cost, counts.getCost(probabilities), 1e-9);
+
+		// Refitting with the coverings of some transactions replaced gives the
+		// cost of the others
+		final List<Transaction> transactionList = transactions.getTransactionList();
+		final CoveringCounts removed = new CoveringCounts();
+		final CoveringCounts added = new CoveringCounts();
+		transactionList.get(0).addCachedCostCounts(removed, 1);
+		transactionList.get(2).addCachedCostCounts(removed, 1);
+		added.add(transactionList.get(0).getCachedCovering());
+		final Refit refit = counts.refit(removed, added, transactions.getDictionary(), transactions.size());
+		double otherCost = 0;
+		for (int i = 0; i < transactionList.size(); i++) {
+			final Transaction t = transactionList.get(i);
+			if (i != 0 && i != 2)
+				otherCost += t.getCost(refit, probabilities, t.getCachedSequenceIds(), t.getCachedCovering());
+		}
+		assertEquals(otherCost, refit.getOtherCost(), 1e-9);
+
+		// and the probabilities fitted to the others and the replacements
+		final CoveringCounts newCounts = new CoveringCounts();
+		for (int i = 0; i < transactionList.size(); i++) {
+			if (i != 0 && i != 2)
+				transactionList.get(i).addCachedCostCounts(newCounts, 1);
+		}
+		newCounts.add(transactionList.get(0).getCachedCovering());
+		for (final int id : newCounts.getIds())
+			assertArrayEquals(CoveringCounts.getProbabilities(newCounts.getCounts(id), transactions.size()),
+					refit.getRow(id), 1e-12);
+	}
+
+	@Test
+	public void testAbortedCandidateEvaluation() throws IOException {
+
+		final File input = getTestFile("TOY.txt"); // database
+		final TransactionList transactions = SequenceMining.readTransactions(input);
+		final Table<Sequence, Integer, Double> model = HashBasedTable.create(transactions.getInitialProbabilities());
+		final InferenceAlgorithm inferenceAlgorithm = new InferGreedy();
+		EMStep.initializeCachedSequences(transactions, model);
+		EMStep.hardEMStep(transactions, inferenceAlgorithm);
+
+		// Evaluate all joins of singletons without aborting and against
+		// average costs to beat around their actual cost
+		int noAborted = 0;
+		for (final Sequence seq1 : model.rowKeySet()) {
+			for (final Sequence seq2 : model.rowKeySet()) {
+				final Sequence candidate = new Sequence(seq1, seq2);
+				final SupportingTransactions supportingTransactions = transactions
+						.getSupportingTransactions(candidate);
+				if (seq1.equals(seq2) || supportingTransactions.size() == 0)
+					continue;
+				transactions.setAverageCost(Double.POSITIVE_INFINITY); // never abort
+				final double fullCost = EMStep.structuralEMStep(transactions, inferenceAlgorithm, candidate,
+						supportingTransactions).averageCost;
+				for (final double factor : new double[] { 0.5, 0.9, 0.99, 1.01, 2 }) {
+					final double averageCost = factor * fullCost;
+					transactions.setAverageCost(averageCost);
+					final CandidateEvaluation evaluation = EMStep.structuralEMStep(transactions,
+							inferenceAlgorithm, candidate, supportingTransactions);
+
+					// Aborted evaluations are lower bounds that reject the
+					// candidate, others are exact
+					if (evaluation.averageCost != fullCost) {
+						assertTrue(factor < 1);
+						assertTrue(evaluation.averageCost > averageCost);
+						assertTrue(evaluation.averageCost <= fullCost + 1e-12);
+						noAborted++;
+					}
+				}
+			}
+		}
+		assertTrue(noAborted > 0);
+	}
+
+	@Test
+	public void testBatchAcceptance() throws IOException {
+
+		// Two independent patterns in disjoint transactions
+		final File input = File.createTempFile("batch", ".txt");
+		input.deleteOnExit();
+		try (PrintWriter out = new PrintWriter(input, "UTF-8")) {
+			for (int i = 0; i < 10; i++) {
+				out.println("1 -1 2 -1 1 -1 2 -1 5 -1 -2");
+				out.println("3 -1 4 -1 3 -1 4 -1 6 -1 -2");
+			}
+		}
+
+		// Only one pattern is accepted per structural step by default
+		assertEquals(1, getNoCombinations(mineOneStep(input)));
+
+		// Both are accepted in one step as they are disjointly supported
+		final int maxBatchCandidates = SequenceMiningCore.MAX_BATCH_CANDIDATES;
+		final int speculativeCandidates = SequenceMiningCore.SPECULATIVE_CANDIDATES;
+		try {
+			SequenceMiningCore.MAX_BATCH_CANDIDATES = 4;
+			SequenceMiningCore.SPECULATIVE_CANDIDATES = 3;
+			final Table<Sequence, Integer, Double> model = mineOneStep(input);
+			assertEquals(2, getNoCombinations(model));
+			assertTrue(model.containsRow(new Sequence(1, 2)));
+			assertTrue(model.containsRow(new Sequence(3, 4)));
+		} finally {
+			SequenceMiningCore.MAX_BATCH_CANDIDATES = maxBatchCandidates;
+			SequenceMiningCore.SPECULATIVE_CANDIDATES = speculativeCandidates;
+		}
+	}
+
+	@Test
+	public void testSpeculativeEvaluation() throws IOException {
+
+		// Speculative evaluation accepts candidates as if evaluated in turn
+		final File input = getTestFile("TOY.txt"); // database
+		final Table<Sequence, Integer, Double> sequential = mine(input, 100);
+		assertTrue(getNoCombinations(sequential) > 0);
+		final int maxBatchCandidates = SequenceMiningCore.MAX_BATCH_CANDIDATES;
+		final int speculativeCandidates = SequenceMiningCore.SPECULATIVE_CANDIDATES;
+		try {
+			SequenceMiningCore.MAX_BATCH_CANDIDATES = 1;
+			for (final int k : new int[] { 2, 3, 8 }) {
+				SequenceMiningCore.SPECULATIVE_CANDIDATES = k;
+				assertEquals(sequential, mine(input, 100));
+			}
+		} finally {
+			SequenceMiningCore.MAX_BATCH_CANDIDATES = maxBatchCandidates;
+			SequenceMiningCore.SPECULATIVE_CANDIDATES = speculativeCandidates;
+		}
+	}
+
+	/** Run one iteration of structural EM on given database */
+	private static Table<Sequence, Integer, Double> mineOneStep(final File input) throws IOException {
+		return mine(input, 1);
+	}
+
+	/** Run given no. of iterations of structural EM on given database */
+	private static Table<Sequence, Integer, Double> mine(final File input, final int maxEMIterations)
+			throws IOException {
+		final TransactionList transactions = SequenceMining.readTransactions(input);
+		final Table<Sequence, Integer, Double> model = HashBasedTable.create(transactions.getInitialProbabilities());
+		return SequenceMiningCore.structuralEM(transactions, model, new InferGreedy(), 100, maxEMIterations);
+	}
+
+	private static int getNoCombinations(final Table<Sequence, Integer, Double> model) {
+		int noCombinations = 0;
+		for (final Sequence seq : model.rowKeySet()) {
+			if (seq.size() > 1)
+				noCombinations++;
+		}
+		return noCombinations;
+	}
+
+	public File getTestFile(final String filename) throws UnsupportedEncodingException {
+		final URL url = this.getClass().getClassLoader().getResource(filename);
+		return new File(java.net.URLDecoder.decode(url.getPath(), "UTF-8"));
+	}
+
+}
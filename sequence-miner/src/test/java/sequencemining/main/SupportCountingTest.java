@@ -1,16 +1,27 @@
 package sequencemining.main;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URL;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
+import java.util.stream.IntStream;
 
 import org.junit.Test;
 
 import sequencemining.sequence.Sequence;
+import sequencemining.transaction.CompressedTransactionDatabase;
+import sequencemining.transaction.ItemMap;
+import sequencemining.transaction.SegmentedTransactionDatabase;
+import sequencemining.transaction.SequenceTrie;
+import sequencemining.transaction.SupportingTransactions;
+import sequencemining.transaction.Transaction;
 import sequencemining.transaction.TransactionList;
 
 public class SupportCountingTest {
@@ -27,6 +38,149 @@ public class SupportCountingTest {
 		assertEquals(1, supp);
 	}
 
+	@Test
+	public void testTrieSupportCounting() throws IOException {
+
+		final File input = getTestFile("TOY.txt"); // database
+		final TransactionList transactions = SequenceMining.readTransactions(input);
+		final List<Sequence> seqs = Arrays.asList(new Sequence(1), new Sequence(1, 2), new Sequence(1, 2, 3),
+				new Sequence(1, 3), new Sequence(3, 1), new Sequence(7, 3), new Sequence(3, 3, 3), new Sequence(8),
+				new Sequence(6, 1, 2, 3));
+		final int[] supports = new SequenceTrie(seqs).countSupports(transactions.getTransactionList());
+		for (int i = 0; i < seqs.size(); i++)
+			assertEquals(transactions.getSupportingTransactions(seqs.get(i)).size(), supports[i]);
+	}
+
+	@Test
+	public void testJoinSupportCounting() throws IOException {
+
+		final File input = getTestFile("TOY.txt"); // database
+		final TransactionList transactions = SequenceMining.readTransactions(input);
+		final Sequence[] seqs = new Sequence[] { new Sequence(7), new Sequence(3), new Sequence(1, 2),
+				new Sequence(7, 3), new Sequence(2, 1), new Sequence(3, 7) };
+		for (final Sequence seq1 : seqs) {
+			for (final Sequence seq2 : seqs) {
+				final Sequence join = new Sequence(seq1, seq2);
+				final SupportingTransactions direct = transactions.getSupportingTransactions(join);
+				final SupportingTransactions vertical = transactions.getSupportingTransactions(join,
+						transactions.getOccurrences(seq1), transactions.getOccurrences(seq2));
+				assertEquals(direct.size(), vertical.size());
+				for (int i = 0; i < direct.size(); i++) {
+					assertEquals(direct.getId(i), vertical.getId(i));
+					assertEquals(direct.getRepetitions(i), vertical.getRepetitions(i));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testSparseItemSupportCounting() {
+
+		final TransactionList transactions = new TransactionList(Arrays.asList(new Transaction(1, -5, 3),
+				new Transaction(2_000_000_000, 1, 3), new Transaction(3, 1, -5)));
+		assertEquals(2, transactions.getSupportingTransactions(new Sequence(1, 3)).size());
+		assertEquals(1, transactions.getSupportingTransactions(new Sequence(2_000_000_000, 3)).size());
+		assertEquals(2, transactions.getSupportingTransactions(new Sequence(-5)).size());
+		assertEquals(0, transactions.getSupportingTransactions(new Sequence(2)).size());
+	}
+
+	@Test
+	public void testSparseItemSegmentedSupportCounting() throws IOException {
+
+		try (final SegmentedTransactionDatabase transactions = new SegmentedTransactionDatabase(
+				Arrays.asList(new Transaction(1, -5, 3), new Transaction(2_000_000_000, 1, 3),
+						new Transaction(3, 1, -5)).iterator(),
+				2, 1)) {
+			assertEquals(2, transactions.getSupportingTransactions(new Sequence(1, 3)).size());
+			assertEquals(1, transactions.getSupportingTransactions(new Sequence(2_000_000_000, 3)).size());
+			assertEquals(2, transactions.getSupportingTransactions(new Sequence(-5)).size());
+			assertEquals(0, transactions.getSupportingTransactions(new Sequence(2)).size());
+		}
+	}
+
+	@Test
+	public void testSegmentedSupportCounting() throws IOException {
+
+		final File input = getTestFile("TOY.txt"); // database
+		final TransactionList transactions = SequenceMining.readTransactions(input);
+		final SegmentedTransactionDatabase segmented = SequenceMining.readSegmentedTransactions(input, 1);
+		assertEquals(transactions.size(), segmented.size());
+		final Sequence[] seqs = new Sequence[] { new Sequence(7), new Sequence(1, 2), new Sequence(3, 1),
+				new Sequence(6, 1, 2, 3), new Sequence(8) };
+		for (final Sequence seq : seqs) {
+			final SupportingTransactions expected = transactions.getSupportingTransactions(seq);
+			final SupportingTransactions actual = segmented.getSupportingTransactions(seq);
+			assertEquals(expected.size(), actual.size());
+			for (int i = 0; i < expected.size(); i++) {
+				assertEquals(expected.getId(i), actual.getId(i));
+				assertEquals(expected.getRepetitions(i), actual.getRepetitions(i));
+			}
+		}
+	}
+
+	@Test
+	public void testCompressedSupportCounting() throws IOException {
+
+		final File input = getTestFile("TOY.txt"); // database
+		final TransactionList transactions = SequenceMining.readTransactions(input);
+		final CompressedTransactionDatabase compressed = SequenceMining.readCompressedTransactions(input, 2,
+				CompressedTransactionDatabase.rankItems(transactions.getInitialProbabilities()));
+		assertEquals(transactions.getTransactionList(), compressed.getTransactionList());
+		final Sequence[] seqs = new Sequence[] { new Sequence(7), new Sequence(1, 2), new Sequence(3, 1),
+				new Sequence(6, 1, 2, 3), new Sequence(8) };
+		for (final Sequence seq : seqs) {
+			final SupportingTransactions expected = transactions.getSupportingTransactions(seq);
+			final SupportingTransactions actual = compressed.getSupportingTransactions(seq);
+			assertEquals(expected.size(), actual.size());
+			for (int i = 0; i < expected.size(); i++)
+				assertEquals(expected.getId(i), actual.getId(i));
+		}
+	}
+
+	@Test
+	public void testCompressedIdentityRanks() throws IOException {
+
+		// Items ranked as themselves (as if remapped) are stored without lookup
+		final File input = getTestFile("TOY.txt"); // database
+		final TransactionList transactions = SequenceMining.readTransactions(input);
+		try (final CompressedTransactionDatabase compressed = SequenceMining.readCompressedTransactions(input, 2,
+				IntStream.range(0, 8).toArray())) {
+			assertEquals(transactions.getTransactionList(), compressed.getTransactionList());
+		}
+	}
+
+	@Test
+	public void testItemRemapping() throws IOException {
+
+		final File input = getTestFile("TOY.txt"); // database
+		final TransactionList transactions = SequenceMining.readTransactions(input);
+		final TransactionList dense = SequenceMining.readTransactions(input, true);
+		final ItemMap itemMap = dense.getItemMap();
+		assertArrayEquals(ItemMap.rankedBy(transactions.getInitialProbabilities()).getLabels(), itemMap.getLabels());
+		assertEquals(itemMap.toDense(transactions.getInitialProbabilities()), dense.getInitialProbabilities());
+		assertEquals(transactions.size(), dense.size());
+		for (int i = 0; i < transactions.size(); i++)
+			assertEquals(transactions.getTransactionList().get(i),
+					itemMap.toOriginal(dense.getTransactionList().get(i)));
+
+		// Dense items are in decreasing order of frequency
+		for (int item = 1; item < itemMap.size(); item++)
+			assertTrue(dense.getInitialProbabilities().get(new Sequence(item - 1), 0) <= dense
+					.getInitialProbabilities().get(new Sequence(item), 0));
+
+		final Sequence[] seqs = new Sequence[] { new Sequence(7), new Sequence(1, 2), new Sequence(3, 1),
+				new Sequence(6, 1, 2, 3), new Sequence(7, 3) };
+		for (final Sequence seq : seqs) {
+			final Sequence denseSeq = itemMap.toDense(seq);
+			assertEquals(seq, dense.toOriginalItems(denseSeq));
+			assertEquals(transactions.getSupportingTransactions(seq).size(),
+					dense.getSupportingTransactions(denseSeq).size());
+			for (final Sequence other : seqs)
+				assertEquals(Integer.signum(Sequence.compareAsStrings(seq, other)),
+						Integer.signum(dense.compareAsStrings(denseSeq, itemMap.toDense(other))));
+		}
+	}
+
 	public File getTestFile(final String filename) throws UnsupportedEncodingException {
 		final URL url = this.getClass().getClassLoader().getResource(filename);
 		return new File(java.net.URLDecoder.decode(url.getPath(), "UTF-8"));
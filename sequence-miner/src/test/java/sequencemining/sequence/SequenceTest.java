@@ -1,12 +1,22 @@
 package sequencemining.sequence;
 
 import static org.junit.Assert.assertEquals;
-
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
 import java.util.BitSet;
+import java.util.List;
 
 import org.junit.Test;
 
+import sequencemining.transaction.Covering;
 import sequencemining.transaction.Transaction;
+import sequencemining.transaction.TransactionList;
 
 public class SequenceTest {
 
@@ -388,4 +398,123 @@ public class SequenceTest {
 	//
 	// }
 
+	@Test
+	public void testSequenceHashCodeAndEquals() {
+
+		final Sequence seq1 = new Sequence(3, 4, 5, 8);
+		final Sequence seq2 = new Sequence();
+		seq2.add(3, 4);
+		final int hashBefore = seq2.hashCode();
+		seq2.add(5, 8);
+		final Sequence seq3 = new Sequence(new Sequence(3, 4), new Sequence(5, 8));
+
+		assertEquals(Arrays.asList(3, 4, 5, 8).hashCode(), seq1.hashCode());
+		assertEquals(false, hashBefore == seq2.hashCode());
+		assertEquals(seq1, seq2);
+		assertEquals(seq1, seq3);
+		assertEquals(seq1.hashCode(), seq3.hashCode());
+		assertEquals(Arrays.asList(3, 4, 5, 8), seq3.getItems());
+		assertEquals("[3, 4, 5, 8]", seq3.toString());
+		assertEquals(false, seq1.equals(new Sequence(3, 4, 5)));
+
+	}
+
+	@Test
+	public void testIndexedSequenceMatching() {
+
+		final Transaction trans = new Transaction(3, 1, 4, 2, 5, 1, 6, 2, 7, 1, 2);
+		final Transaction transIndexed = new Transaction(3, 1, 4, 2, 5, 1, 6, 2, 7, 1, 2);
+		transIndexed.buildIndex();
+		assertEquals(true, transIndexed.isIndexed());
+
+		final Sequence[] seqs = new Sequence[] { new Sequence(1, 2), new Sequence(3, 2, 2), new Sequence(2, 3),
+				new Sequence(8), new Sequence(1, 1, 1), new Sequence(7, 1, 2) };
+		final BitSet alreadyCovered = new BitSet();
+		alreadyCovered.set(1);
+		alreadyCovered.set(7);
+		for (final Sequence seq : seqs) {
+			assertEquals(trans.contains(seq), transIndexed.contains(seq));
+			assertEquals(trans.repetitions(seq), transIndexed.repetitions(seq));
+			assertEquals(trans.getCovered(seq, new BitSet()), transIndexed.getCovered(seq, new BitSet()));
+			assertEquals(trans.getCovered(seq, alreadyCovered), transIndexed.getCovered(seq, alreadyCovered));
+			assertEquals(trans.firstOccurrenceEnd(seq), transIndexed.firstOccurrenceEnd(seq));
+			assertEquals(trans.lastOccurrenceStart(seq), transIndexed.lastOccurrenceStart(seq));
+		}
+		assertEquals(4, trans.firstOccurrenceEnd(new Sequence(1, 2)));
+		assertEquals(9, trans.lastOccurrenceStart(new Sequence(1, 2)));
+		assertEquals(-1, trans.lastOccurrenceStart(new Sequence(2, 3)));
+
+		// Index is dropped when the transaction is modified
+		transIndexed.add(9);
+		assertEquals(false, transIndexed.isIndexed());
+
+	}
+
+	@Test
+	public void testCompareAsStrings() {
+
+		final Sequence[] seqs = new Sequence[] { new Sequence(), new Sequence(1), new Sequence(12), new Sequence(2),
+				new Sequence(1, 2), new Sequence(12, 1), new Sequence(1, 23), new Sequence(1, 2, 3), new Sequence(-1),
+				new Sequence(-12, 3), new Sequence(10, 9), new Sequence(Integer.MIN_VALUE), new Sequence(100) };
+		for (final Sequence seq1 : seqs) {
+			for (final Sequence seq2 : seqs)
+				assertEquals(Integer.signum(seq1.toString().compareTo(seq2.toString())),
+						Integer.signum(Sequence.compareAsStrings(seq1, seq2)));
+		}
+
+	}
+
+	@Test
+	public void testJoinFingerprint() {
+
+		final Sequence[] seqs = new Sequence[] { new Sequence(), new Sequence(1), new Sequence(2), new Sequence(1, 2),
+				new Sequence(2, 1), new Sequence(1, 2, 3), new Sequence(-7, 0) };
+		for (final Sequence seq1 : seqs) {
+			for (final Sequence seq2 : seqs) {
+				final Sequence join = new Sequence(seq1, seq2);
+				assertEquals(join.fingerprint(), Sequence.joinFingerprint(seq1, seq2));
+				assertEquals(join.equals(seq1), join.fingerprint() == seq1.fingerprint());
+			}
+		}
+
+	}
+
+	@Test
+	public void testArenaTransactions() throws IOException, ClassNotFoundException {
+
+		final List<Transaction> transactions = new TransactionList(
+				Arrays.asList(new Transaction(1, 2, 3), new Transaction(4, 5))).getTransactionList();
+		final Transaction transaction1 = transactions.get(0);
+		final Transaction transaction2 = transactions.get(1);
+		assertEquals(new Sequence(1, 2, 3), transaction1);
+		assertEquals(new Sequence(4, 5), transaction2);
+		assertEquals(Arrays.asList(4, 5), transaction2.getItems());
+		assertTrue(transaction2.contains(new Sequence(5)));
+
+		// Adding to a transaction copies its items out of the arena
+		transaction1.add(6);
+		assertEquals(new Sequence(1, 2, 3, 6), transaction1);
+		assertEquals(new Sequence(4, 5), transaction2);
+		assertEquals(new Sequence(1, 2, 3), transactions.get(0));
+
+		// Caches are kept by the list, not by its views
+		final Covering covering = new Covering();
+		covering.add(0);
+		transaction2.setStaleCachedCovering(covering);
+		assertTrue(covering == transactions.get(1).getCachedCovering());
+
+		// Only the items of a transaction are serialized
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (final ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(transaction2);
+		}
+		try (final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			final Transaction copy = (Transaction) in.readObject();
+			assertEquals(transaction2, copy);
+			copy.add(7);
+			assertEquals(new Sequence(4, 5, 7), copy);
+		}
+
+	}
+
 }
@@ -0,0 +1,96 @@
+package sequencemining.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class FingerprintCacheTest {
+
+	@Test
+	public void testLongHashSet() {
+
+		final LongHashSet set = new LongHashSet();
+		final Set<Long> expected = new HashSet<>();
+		final Random random = new Random(1);
+		for (int i = 0; i < 10000; i++) { // grows past the initial capacity
+			final long key = i % 10 == 0 ? random.nextInt(100) - 50 : random.nextLong();
+			assertEquals(expected.add(key), set.add(key));
+		}
+		assertTrue(expected.contains(0L));
+		assertFalse(set.add(0));
+		assertEquals(expected.size(), set.size());
+		for (final long key : expected)
+			assertTrue(set.contains(key));
+		for (int i = 0; i < 10000; i++) {
+			final long key = random.nextLong();
+			assertEquals(expected.contains(key), set.contains(key));
+		}
+	}
+
+	@Test
+	public void testCacheWithoutEviction() {
+
+		final FingerprintCache cache = new FingerprintCache(1 << 16, -1);
+		final Map<Long, Integer> expected = new HashMap<>();
+		final Random random = new Random(1);
+		for (int i = 0; i < 10000; i++) { // grows past the initial capacity
+			final long key = random.nextLong();
+			expected.put(key, i);
+			cache.put(key, i);
+		}
+		cache.put(0, 7);
+		expected.put(0L, 7);
+		for (final Map.Entry<Long, Integer> entry : expected.entrySet())
+			assertEquals((int) entry.getValue(), cache.get(entry.getKey()));
+		assertEquals(expected.size(), cache.size());
+		assertEquals(0, cache.getEvictions());
+		assertEquals(expected.size(), cache.getHits());
+		assertEquals(0, cache.getMisses());
+
+		// Overwriting does not add entries
+		cache.put(0, 8);
+		assertEquals(8, cache.get(0));
+		assertEquals(expected.size(), cache.size());
+
+		assertEquals(-1, cache.get(random.nextLong()));
+		assertEquals(1, cache.getMisses());
+	}
+
+	@Test
+	public void testCacheEviction() {
+
+		final FingerprintCache cache = new FingerprintCache(8, -1);
+		final Random random = new Random(1);
+		final int noKeys = 1000;
+		long last = 0;
+		for (int i = 0; i < noKeys; i++) {
+			last = random.nextLong();
+			cache.put(last, i);
+		}
+		assertTrue(cache.size() <= 16);
+		assertEquals(noKeys, cache.size() + cache.getEvictions());
+		assertEquals(noKeys - 1, cache.get(last));
+
+		int found = 0;
+		final Random replay = new Random(1);
+		for (int i = 0; i < noKeys; i++) {
+			final int value = cache.get(replay.nextLong());
+			if (value != -1) {
+				assertEquals(i, value); // cached values are never mixed up
+				found++;
+			}
+		}
+		assertEquals(cache.size(), found);
+		assertEquals(1 + found, cache.getHits());
+		assertEquals(noKeys - found, cache.getMisses());
+	}
+
+}
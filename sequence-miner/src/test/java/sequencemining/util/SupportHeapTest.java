@@ -0,0 +1,66 @@
+package sequencemining.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SupportHeapTest {
+
+	@Test
+	public void testPollOrder() {
+
+		// Ties are broken by decreasing ID
+		final SupportHeap heap = new SupportHeap((id1, id2) -> Integer.compare(id2, id1));
+		assertTrue(heap.isEmpty());
+		assertEquals(-1, heap.poll());
+
+		final Random random = new Random(1);
+		final List<int[]> entries = new ArrayList<>();
+		for (int id = 0; id < 1000; id++) { // grows past the initial capacity
+			final int support = random.nextInt(20);
+			entries.add(new int[] { support, id });
+			heap.add(id, support);
+		}
+		assertEquals(entries.size(), heap.size());
+
+		Collections.sort(entries,
+				Comparator.<int[]> comparingInt(e -> -e[0]).thenComparing(Comparator.comparingInt(e -> -e[1])));
+		for (final int[] entry : entries)
+			assertEquals(entry[1], heap.poll());
+		assertTrue(heap.isEmpty());
+		assertEquals(-1, heap.poll());
+	}
+
+	@Test
+	public void testInterleavedAddPollAndClear() {
+
+		final SupportHeap heap = new SupportHeap(Integer::compare);
+		heap.add(5, 3);
+		heap.add(2, 7);
+		heap.add(9, 3);
+		assertEquals(2, heap.poll());
+		heap.add(2, 1); // requeue with a lower support
+		heap.add(4, 3);
+		assertEquals(4, heap.poll());
+		assertEquals(5, heap.poll());
+		assertEquals(9, heap.poll());
+		assertEquals(2, heap.poll());
+		assertEquals(-1, heap.poll());
+
+		heap.add(1, 1);
+		heap.add(3, 2);
+		heap.clear();
+		assertTrue(heap.isEmpty());
+		assertEquals(-1, heap.poll());
+		heap.add(6, 1);
+		assertEquals(6, heap.poll());
+	}
+
+}